@@ -0,0 +1,76 @@
+package com.test.bench;
+
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.wltea.analyzer.lucene.IKAnalyzer;
+
+/**
+ * IK分词的速度：对lucene-demo.sql里blog表的正文分词，分别测试智能分词和最细粒度分词<br>
+ * 用法：AnalyzerBenchmark [sql文件]，默认是工程根目录下的lucene-demo.sql
+ * @author liuxianan
+ */
+public class AnalyzerBenchmark
+{
+	private static final int WARMUPS = 5;
+	private static final int ITERATIONS = 20;
+	private static final int REPEAT = 20; // 几篇文章太短，每轮重复分词这么多遍
+
+	public static void main(String[] args) throws Exception
+	{
+		String sqlPath = args.length > 0 ? args[0] : Corpus.DEFAULT_SQL;
+		List<String[]> blogs = Corpus.loadBlogs(sqlPath);
+		long chars = 0;
+		for(String[] blog : blogs)
+			chars += blog[2].length();
+		System.out.println("测试数据：" + sqlPath + "，共" + blogs.size() + "篇，正文" + chars + "字");
+
+		Bench.run("IKAnalyzer(智能分词)", "词", WARMUPS, ITERATIONS, new TokenizeTask(new IKAnalyzer(true), blogs));
+		Bench.run("IKAnalyzer(最细粒度)", "词", WARMUPS, ITERATIONS, new TokenizeTask(new IKAnalyzer(false), blogs));
+	}
+
+	/**
+	 * 和建索引时一样，从分词器取得TokenStream，读出每个词
+	 */
+	private static class TokenizeTask implements Bench.Task
+	{
+		private final Analyzer analyzer;
+		private final List<String[]> blogs;
+
+		public TokenizeTask(Analyzer analyzer, List<String[]> blogs)
+		{
+			this.analyzer = analyzer;
+			this.blogs = blogs;
+		}
+
+		@Override
+		public long run() throws Exception
+		{
+			long tokens = 0;
+			for(int i=0; i<REPEAT; i++)
+			{
+				for(String[] blog : blogs)
+				{
+					TokenStream tokenStream = analyzer.tokenStream("content", blog[2]);
+					CharTermAttribute term = tokenStream.addAttribute(CharTermAttribute.class);
+					try
+					{
+						tokenStream.reset();
+						while(tokenStream.incrementToken())
+						{
+							if(term.length() > 0) tokens++;
+						}
+						tokenStream.end();
+					}
+					finally
+					{
+						tokenStream.close();
+					}
+				}
+			}
+			return tokens;
+		}
+	}
+}
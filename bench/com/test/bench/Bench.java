@@ -0,0 +1,81 @@
+package com.test.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * 最简单的基准测试工具：先预热若干轮，再测量若干轮，输出每轮平均耗时、吞吐量、分配的内存、分配速率和GC次数<br>
+ * 分配的内存只统计调用run()的线程，其它线程（如后台合并段的线程）分配的不算在内<br>
+ * 工程没有maven/gradle，引不了JMH，所以自己写一个，结果只用来对比同一台机器上的不同实现
+ * @author liuxianan
+ */
+public class Bench
+{
+	/**
+	 * 被测试的操作
+	 */
+	public interface Task
+	{
+		/**
+		 * 执行一轮
+		 * @return 本轮处理的量（字节数、文档数等），用于计算吞吐量
+		 */
+		public long run() throws Exception;
+	}
+
+	/**
+	 * 执行一个基准测试并打印结果
+	 * @param name 名称
+	 * @param unit 吞吐量的单位，和Task.run()的返回值对应
+	 * @param warmups 预热轮数
+	 * @param iterations 测量轮数
+	 * @param task 被测试的操作
+	 */
+	public static void run(String name, String unit, int warmups, int iterations, Task task) throws Exception
+	{
+		for(int i=0; i<warmups; i++)
+			task.run();
+		System.gc();
+		long gcCount = gcCount(), gcTime = gcTime();
+		long allocated = allocatedBytes();
+		long amount = 0;
+		long start = System.nanoTime();
+		for(int i=0; i<iterations; i++)
+			amount += task.run();
+		long elapsed = System.nanoTime() - start;
+		allocated = allocated < 0 ? -1 : allocatedBytes() - allocated;
+		gcCount = gcCount() - gcCount;
+		gcTime = gcTime() - gcTime;
+		System.out.println(String.format("%-40s %10.3f ms/op %14.1f %s/s %12.1f KB/op %10.1f MB/s   gc: %d次 %dms",
+				name, elapsed / 1e6 / iterations, amount * 1e9 / elapsed, unit,
+				allocated / 1024.0 / iterations, allocated * 1e9 / 1048576 / elapsed, gcCount, gcTime));
+	}
+
+	/**
+	 * 当前线程累计分配的字节数，JVM不支持时返回-1
+	 */
+	private static long allocatedBytes()
+	{
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+
+	private static long gcCount()
+	{
+		long count = 0;
+		for(GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, bean.getCollectionCount());
+		return count;
+	}
+
+	private static long gcTime()
+	{
+		long time = 0;
+		for(GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+			time += Math.max(0, bean.getCollectionTime());
+		return time;
+	}
+}
@@ -0,0 +1,195 @@
+package com.test.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.wltea.analyzer.lucene.IKAnalyzer;
+
+import com.test.index.BlogDocumentBuilder;
+import com.test.util.FileUtil;
+
+/**
+ * 基准测试用的数据：从lucene-demo.sql里读出blog表的几篇真实文章，
+ * 再按这些文章分词后的词频随机组合出任意多篇合成文章（1万、100万篇都可以）<br>
+ * 合成文章按编号即时生成，同一个编号每次生成的内容都一样，不需要把100万篇都放在内存里
+ * @author liuxianan
+ */
+public class Corpus
+{
+	/** 默认的sql文件，在工程根目录下运行时可以直接找到 */
+	public static final String DEFAULT_SQL = "lucene-demo.sql";
+	private static final String INSERT_PREFIX = "INSERT INTO `blog` VALUES (";
+	private static final long BASE_TIME = 1493900000000L; // 合成文章的修改时间从这里开始，每篇加一分钟
+
+	private final List<String[]> blogs;
+	private final String[] words; // 所有文章分词后的词，按出现的次数重复，随机取一个就是按词频抽样
+	private final int contentWords;
+
+	/**
+	 * @param sqlPath lucene-demo.sql的路径
+	 * @param contentWords 合成文章正文的平均词数
+	 */
+	public Corpus(String sqlPath, int contentWords) throws IOException
+	{
+		this.blogs = loadBlogs(sqlPath);
+		if(blogs.isEmpty()) throw new IllegalArgumentException("没有找到blog表的数据：" + sqlPath);
+		List<String> tokens = new ArrayList<String>();
+		Analyzer analyzer = new IKAnalyzer(true);
+		try
+		{
+			for(String[] blog : blogs)
+			{
+				tokenize(analyzer, blog[1], tokens);
+				tokenize(analyzer, blog[2], tokens);
+			}
+		}
+		finally
+		{
+			analyzer.close();
+		}
+		this.words = tokens.toArray(new String[tokens.size()]);
+		this.contentWords = contentWords;
+	}
+
+	/**
+	 * sql文件里的真实文章，按{@link BlogDocumentBuilder#COLUMNS}的顺序排列
+	 */
+	public List<String[]> getBlogs()
+	{
+		return blogs;
+	}
+
+	/**
+	 * 词表的大小（包括重复的）
+	 */
+	public int getWordCount()
+	{
+		return words.length;
+	}
+
+	/**
+	 * 生成第i篇合成文章，按{@link BlogDocumentBuilder#COLUMNS}的顺序排列，最后加上修改时间的毫秒数
+	 */
+	public String[] row(int i)
+	{
+		Random random = new Random(i * 0x9E3779B97F4A7C15L);
+		String[] row = new String[BlogDocumentBuilder.UPDATE_TIME + 1];
+		row[0] = String.valueOf(i);
+		row[1] = words(random, 5 + random.nextInt(8), "");
+		// 正文长度在平均词数的一半到一倍半之间
+		row[2] = words(random, contentWords / 2 + random.nextInt(contentWords + 1), null);
+		row[3] = words(random, 2, " ");
+		row[4] = "http://blog.example.com/" + i + ".html";
+		row[BlogDocumentBuilder.UPDATE_TIME] = String.valueOf(BASE_TIME + i * 60000L);
+		return row;
+	}
+
+	/**
+	 * 生成一批搜索关键字，每个是按词频抽取的1到2个词
+	 */
+	public String[] queries(int count)
+	{
+		Random random = new Random(count);
+		String[] queries = new String[count];
+		for(int i=0; i<count; i++)
+			queries[i] = words(random, 1 + random.nextInt(2), " ");
+		return queries;
+	}
+
+	/**
+	 * 按词频抽取n个词连起来
+	 * @param separator 词之间的分隔符，为null时按正文的样子每隔一些词随机加标点或换行
+	 */
+	private String words(Random random, int n, String separator)
+	{
+		StringBuilder sb = new StringBuilder(n * 3);
+		for(int i=0; i<n; i++)
+		{
+			if(i > 0)
+			{
+				if(separator != null)
+					sb.append(separator);
+				else if(random.nextInt(12) == 0)
+					sb.append(random.nextInt(4) == 0 ? "。\n" : "，");
+			}
+			sb.append(words[random.nextInt(words.length)]);
+		}
+		return sb.toString();
+	}
+
+	private static void tokenize(Analyzer analyzer, String text, List<String> tokens) throws IOException
+	{
+		if(text == null) return;
+		TokenStream tokenStream = analyzer.tokenStream("content", text);
+		CharTermAttribute term = tokenStream.addAttribute(CharTermAttribute.class);
+		try
+		{
+			tokenStream.reset();
+			while(tokenStream.incrementToken())
+				tokens.add(term.toString());
+			tokenStream.end();
+		}
+		finally
+		{
+			tokenStream.close();
+		}
+	}
+
+	/**
+	 * 从mysql导出的sql文件里读取blog表的所有行<br>
+	 * 表的列顺序是id、title、tags、url、content，返回时调整成COLUMNS的顺序
+	 */
+	public static List<String[]> loadBlogs(String sqlPath)
+	{
+		String sql = FileUtil.readFile(sqlPath, "utf-8");
+		if(sql == null) throw new IllegalArgumentException("读取sql文件失败：" + sqlPath);
+		List<String[]> blogs = new ArrayList<String[]>();
+		for(int start = sql.indexOf(INSERT_PREFIX); start >= 0; start = sql.indexOf(INSERT_PREFIX, start + 1))
+		{
+			List<String> values = parseValues(sql, start + INSERT_PREFIX.length());
+			if(values.size() != 5) throw new IllegalArgumentException("blog表应该有5列：" + values);
+			blogs.add(new String[]{values.get(0), values.get(1), values.get(4), values.get(2), values.get(3)});
+		}
+		return blogs;
+	}
+
+	/**
+	 * 解析VALUES括号里用逗号分隔的值，字符串是mysql的转义格式
+	 */
+	private static List<String> parseValues(String sql, int pos)
+	{
+		List<String> values = new ArrayList<String>();
+		StringBuilder sb = new StringBuilder();
+		while(pos < sql.length())
+		{
+			char c = sql.charAt(pos++);
+			if(c == ')') break;
+			if(c != '\'') continue; // 逗号、空格，以及NULL这类不加引号的值（blog表没有）
+			sb.setLength(0);
+			while(pos < sql.length() && (c = sql.charAt(pos++)) != '\'')
+			{
+				if(c != '\\')
+				{
+					sb.append(c);
+					continue;
+				}
+				c = sql.charAt(pos++);
+				switch(c)
+				{
+					case 'r': sb.append('\r'); break;
+					case 'n': sb.append('\n'); break;
+					case 't': sb.append('\t'); break;
+					case '0': sb.append('\0'); break;
+					default: sb.append(c); break;
+				}
+			}
+			values.add(sb.toString());
+		}
+		return values;
+	}
+}
@@ -0,0 +1,92 @@
+package com.test.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.wltea.analyzer.lucene.IKAnalyzer;
+
+import com.test.index.BlogDocumentBuilder;
+import com.test.index.IndexWriterProfile;
+import com.test.util.FileUtil;
+
+/**
+ * 建索引的速度：用合成文章测试addDocument每秒能写入多少篇，每轮在临时目录从头建一个索引并提交<br>
+ * 分别测试默认配置和全量重建用的批量导入配置（{@link IndexWriterProfile#bulkLoad(Analyzer)}）；生成文章本身的耗时单独测一遍，和建索引的结果相减就是Lucene和分词的耗时<br>
+ * 用法：IndexBenchmark [文章数] [正文平均词数] [sql文件]，默认1万篇、每篇300词；100万篇时预热和测量都只跑一轮
+ * @author liuxianan
+ */
+public class IndexBenchmark
+{
+	public static void main(String[] args) throws Exception
+	{
+		final int docs = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int contentWords = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+		final Corpus corpus = new Corpus(args.length > 2 ? args[2] : Corpus.DEFAULT_SQL, contentWords);
+		boolean large = docs >= 100000;
+		int warmups = large ? 1 : 2, iterations = large ? 1 : 5;
+		System.out.println("合成文章：" + docs + "篇，正文平均" + contentWords + "词，词表" + corpus.getWordCount() + "词");
+
+		Bench.run("生成文章", "篇", warmups, iterations, new Bench.Task()
+		{
+			@Override
+			public long run() throws Exception
+			{
+				long chars = 0;
+				for(int i=0; i<docs; i++)
+					chars += corpus.row(i)[2].length();
+				return chars > 0 ? docs : 0;
+			}
+		});
+		final File dir = new File(System.getProperty("java.io.tmpdir"), "lucene-demo-bench-addDocument");
+		Bench.run("addDocument", "篇", warmups, iterations, new Bench.Task()
+		{
+			@Override
+			public long run() throws Exception
+			{
+				FileUtil.delete(dir);
+				buildIndex(dir, corpus, docs, false);
+				return docs;
+			}
+		});
+		Bench.run("addDocument(批量导入，合并成1个段)", "篇", warmups, iterations, new Bench.Task()
+		{
+			@Override
+			public long run() throws Exception
+			{
+				FileUtil.delete(dir);
+				buildIndex(dir, corpus, docs, true);
+				return docs;
+			}
+		});
+		FileUtil.delete(dir);
+	}
+
+	/**
+	 * 用合成文章建索引，文档结构和DbSearchDemo一样，content记录偏移位置
+	 * @param bulkLoad 是否用批量导入的配置，写完后合并成1个段，否则用默认配置
+	 */
+	static void buildIndex(File dir, Corpus corpus, int docs, boolean bulkLoad) throws IOException
+	{
+		Directory directory = FSDirectory.open(FileSystems.getDefault().getPath(dir.getAbsolutePath()));
+		Analyzer analyzer = new IKAnalyzer(true);
+		IndexWriter indexWriter = new IndexWriter(directory, bulkLoad ? IndexWriterProfile.bulkLoad(analyzer) : IndexWriterProfile.defaults(analyzer));
+		try
+		{
+			BlogDocumentBuilder builder = new BlogDocumentBuilder(true, null);
+			for(int i=0; i<docs; i++)
+				indexWriter.addDocument(builder.build(corpus.row(i)));
+			if(bulkLoad) IndexWriterProfile.finishBulkLoad(indexWriter, 1);
+			indexWriter.commit();
+		}
+		finally
+		{
+			indexWriter.close();
+			directory.close();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.test.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.test.util.FileUtil;
+
+/**
+ * 对比读取文件的几种方式：原来的BufferedReader逐行读取，NIO一次读完，以及建索引时分词器使用的流式读取<br>
+ * 用法：ReadFileBenchmark [文件夹]，不指定文件夹时在临时目录生成一批UTF-8和GBK的测试文件
+ * @author liuxianan
+ */
+public class ReadFileBenchmark
+{
+	private static final int WARMUPS = 3;
+	private static final int ITERATIONS = 10;
+
+	public static void main(String[] args) throws Exception
+	{
+		String dir = args.length > 0 ? args[0] : generateCorpus(200, 256 * 1024).getAbsolutePath();
+		final List<File> files = FileUtil.listAllFiles(dir);
+		System.out.println("测试文件：" + dir + "，共" + files.size() + "个");
+
+		Bench.run("readFile(BufferedReader.readLine)", "MB", WARMUPS, ITERATIONS, new Bench.Task()
+		{
+			@Override
+			public long run() throws Exception
+			{
+				long bytes = 0;
+				for(File file : files)
+				{
+					FileUtil.readFile(file.getAbsolutePath(), "utf-8");
+					bytes += file.length();
+				}
+				return bytes >> 20;
+			}
+		});
+		Bench.run("readFileNio(自动探测编码)", "MB", WARMUPS, ITERATIONS, new Bench.Task()
+		{
+			@Override
+			public long run() throws Exception
+			{
+				long bytes = 0;
+				for(File file : files)
+				{
+					FileUtil.readFileNio(file.getAbsolutePath(), null);
+					bytes += file.length();
+				}
+				return bytes >> 20;
+			}
+		});
+		Bench.run("stream openReader", "MB", WARMUPS, ITERATIONS, new StreamTask(files, false));
+		Bench.run("stream openNioReader(自动探测编码)", "MB", WARMUPS, ITERATIONS, new StreamTask(files, true));
+	}
+
+	/**
+	 * 模拟分词器的读取方式：用固定的char数组不断读取，直到文件末尾
+	 */
+	private static class StreamTask implements Bench.Task
+	{
+		private final List<File> files;
+		private final boolean nio;
+		private final char[] buf = new char[4096];
+
+		public StreamTask(List<File> files, boolean nio)
+		{
+			this.files = files;
+			this.nio = nio;
+		}
+
+		@Override
+		public long run() throws Exception
+		{
+			long bytes = 0;
+			for(File file : files)
+			{
+				Reader reader = nio ? FileUtil.openNioReader(file.getAbsolutePath(), null) : FileUtil.openReader(file.getAbsolutePath(), "utf-8");
+				try
+				{
+					while(reader.read(buf) != -1);
+				}
+				finally
+				{
+					reader.close();
+				}
+				bytes += file.length();
+			}
+			return bytes >> 20;
+		}
+	}
+
+	/**
+	 * 生成测试文件，一半UTF-8一半GBK，中英文混合
+	 * @param count 文件个数
+	 * @param size 每个文件的大概字节数
+	 * @return 生成的目录
+	 */
+	static File generateCorpus(int count, int size) throws IOException
+	{
+		File dir = new File(System.getProperty("java.io.tmpdir"), "lucene-demo-bench-files");
+		if(dir.exists() && dir.list().length == count) return dir;
+		FileUtil.delete(dir);
+		dir.mkdirs();
+		Random random = new Random(42);
+		String[] words = {"搜索", "索引", "分词", "文件", "数据库", "高亮", "lucene", "android", "java", "读取", "导出", "中国", "上海"};
+		for(int i=0; i<count; i++)
+		{
+			StringBuilder sb = new StringBuilder(size);
+			while(sb.length() < size / 2)
+			{
+				sb.append(words[random.nextInt(words.length)]).append(random.nextInt(10) == 0 ? "\n" : " ");
+			}
+			FileUtil.writeFile(new File(dir, "file" + i + ".txt").getAbsolutePath(), sb.toString(), i % 2 == 0 ? "utf-8" : "gbk");
+		}
+		return dir;
+	}
+}
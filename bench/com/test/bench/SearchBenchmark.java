@@ -0,0 +1,139 @@
+package com.test.bench;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.highlight.Highlighter;
+import org.apache.lucene.search.highlight.QueryScorer;
+import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
+import org.apache.lucene.search.highlight.SimpleSpanFragmenter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.wltea.analyzer.lucene.IKAnalyzer;
+
+import com.test.search.SearchService;
+
+/**
+ * 搜索的各个环节：解析关键字、搜索前100条、对前10条重新分词高亮，以及SearchService取第一页（倒排表高亮）的整体耗时<br>
+ * 索引用合成文章建在临时目录，文章数不变时下次直接复用<br>
+ * 用法：SearchBenchmark [文章数] [正文平均词数] [sql文件]，默认1万篇、每篇300词
+ * @author liuxianan
+ */
+public class SearchBenchmark
+{
+	private static final int WARMUPS = 3;
+	private static final int ITERATIONS = 10;
+	private static final int QUERIES = 200; // 每轮执行的关键字个数
+	private static final int HIGHLIGHTS = 10; // 每个关键字高亮的结果数，一般就是一页
+	private static final String[] FIELDS = {"title", "content", "tag"};
+	private static final BooleanClause.Occur[] CLAUSES = {BooleanClause.Occur.SHOULD, BooleanClause.Occur.SHOULD, BooleanClause.Occur.SHOULD};
+
+	public static void main(String[] args) throws Exception
+	{
+		int docs = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int contentWords = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+		Corpus corpus = new Corpus(args.length > 2 ? args[2] : Corpus.DEFAULT_SQL, contentWords);
+		File dir = new File(System.getProperty("java.io.tmpdir"), "lucene-demo-bench-search-" + docs + "-" + contentWords);
+		Directory directory = FSDirectory.open(FileSystems.getDefault().getPath(dir.getAbsolutePath()));
+		if(!DirectoryReader.indexExists(directory))
+		{
+			System.out.println("建索引：" + dir);
+			long start = System.currentTimeMillis();
+			IndexBenchmark.buildIndex(dir, corpus, docs, false);
+			System.out.println("建索引耗时：" + (System.currentTimeMillis() - start) + "ms");
+		}
+		final Analyzer analyzer = new IKAnalyzer(true);
+		final String[] keyWords = corpus.queries(QUERIES);
+		DirectoryReader reader = DirectoryReader.open(directory);
+		final IndexSearcher indexSearcher = new IndexSearcher(reader);
+		System.out.println("索引：" + dir + "，共" + reader.numDocs() + "篇，每轮" + QUERIES + "个关键字");
+
+		Bench.run("MultiFieldQueryParser.parse", "次", WARMUPS, ITERATIONS, new Bench.Task()
+		{
+			@Override
+			public long run() throws Exception
+			{
+				for(String keyWord : keyWords)
+					MultiFieldQueryParser.parse(keyWord, FIELDS, CLAUSES, analyzer);
+				return keyWords.length;
+			}
+		});
+
+		final Query[] queries = new Query[keyWords.length];
+		for(int i=0; i<keyWords.length; i++)
+			queries[i] = MultiFieldQueryParser.parse(keyWords[i], FIELDS, CLAUSES, analyzer);
+		Bench.run("IndexSearcher.search(top100)", "次", WARMUPS, ITERATIONS, new Bench.Task()
+		{
+			@Override
+			public long run() throws Exception
+			{
+				long hits = 0;
+				for(Query query : queries)
+					hits += indexSearcher.search(query, 100).scoreDocs.length;
+				return hits >= 0 ? queries.length : 0;
+			}
+		});
+
+		// 先把要高亮的正文读出来，只测高亮本身
+		final String[][] contents = new String[queries.length][];
+		for(int i=0; i<queries.length; i++)
+		{
+			ScoreDoc[] scoreDocs = indexSearcher.search(queries[i], HIGHLIGHTS).scoreDocs;
+			contents[i] = new String[scoreDocs.length];
+			for(int j=0; j<scoreDocs.length; j++)
+				contents[i][j] = indexSearcher.doc(scoreDocs[j].doc).get("content");
+		}
+		Bench.run("Highlighter.getBestFragment(前" + HIGHLIGHTS + "条)", "条", WARMUPS, ITERATIONS, new Bench.Task()
+		{
+			@Override
+			public long run() throws Exception
+			{
+				long count = 0;
+				for(int i=0; i<queries.length; i++)
+				{
+					QueryScorer scorer = new QueryScorer(queries[i], "content");
+					Highlighter highlighter = new Highlighter(new SimpleHTMLFormatter("<span style=\"backgroud:red\">", "</span>"), scorer);
+					highlighter.setTextFragmenter(new SimpleSpanFragmenter(scorer));
+					for(String content : contents[i])
+					{
+						if(content == null) continue;
+						highlighter.getBestFragment(analyzer, "content", content);
+						count++;
+					}
+				}
+				return count;
+			}
+		});
+
+		final SearchService searchService = new SearchService(dir.getAbsolutePath(), FIELDS, CLAUSES);
+		try
+		{
+			searchService.setPostingsHighlight(true);
+			searchService.setLoadFields("title", "url");
+			Bench.run("SearchService.search(第一页)", "次", WARMUPS, ITERATIONS, new Bench.Task()
+			{
+				@Override
+				public long run() throws Exception
+				{
+					for(String keyWord : keyWords)
+						searchService.search(keyWord, 0, HIGHLIGHTS, null);
+					return keyWords.length;
+				}
+			});
+		}
+		finally
+		{
+			searchService.close();
+			reader.close();
+			directory.close();
+			analyzer.close();
+		}
+	}
+}
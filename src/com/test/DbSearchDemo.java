@@ -1,28 +1,25 @@
 package com.test;
 
+import java.io.IOException;
 import java.nio.file.FileSystems;
-import java.sql.ResultSet;
+import java.sql.SQLException;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
-import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.search.BooleanClause;
-import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.search.highlight.Highlighter;
-import org.apache.lucene.search.highlight.QueryScorer;
-import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
-import org.apache.lucene.search.highlight.SimpleSpanFragmenter;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.wltea.analyzer.lucene.IKAnalyzer;
 
+import com.test.index.BlogIndexer;
+import com.test.index.ContentStore;
+import com.test.index.IndexMetrics;
+import com.test.index.IndexShards;
+import com.test.index.IndexWriterProfile;
+import com.test.metrics.MetricsReporter;
+import com.test.search.SearchHit;
+import com.test.search.SearchResult;
+import com.test.search.SearchService;
 import com.test.util.JdbcUtil;
 
 /**
@@ -35,35 +32,101 @@ public class DbSearchDemo
 	public static final String JDBC_URL = "jdbc:mysql://localhost:3306/lucene-demo?useUnicode=true&characterEncoding=utf-8";
 	public static final String USER = "root";
 	public static final String PWD = "root";
+	public static final int INDEX_THREADS = Runtime.getRuntime().availableProcessors(); // 建索引的线程数
+	public static final int INDEX_QUEUE_SIZE = 1000; // 等待建索引的行数上限，决定了内存占用
+	// 记录修改时间的列，增量同步时用来发现修改过的文章，为null时只能同步新增和删除，添加方法见BlogIndexer.setUpdateTimeColumn
+	public static final String UPDATE_TIME_COLUMN = null;
+	public static final boolean BULK_LOAD = true; // 全量重建时是否用批量导入的配置，见IndexWriterProfile
+	public static final double BULK_RAM_BUFFER_MB = 256; // 批量导入时的内存缓冲区，JVM的堆要留出这么多
+	public static final int FORCE_MERGE_SEGMENTS = 1; // 批量导入后合并成几个段，0表示不合并
+	// 全量重建时分几个分片同时写，写完用addIndexes合并进索引，小于等于1表示不分片；线程多时一个IndexWriter的刷新和合并会成为瓶颈，每个分片4个线程左右
+	public static final int INDEX_SHARDS = INDEX_THREADS > 8 ? (INDEX_THREADS + 3) / 4 : 1;
+	public static final String SHARD_PATH = INDEX_PATH + "-shards"; // 分片的临时目录，合并后删除
+	public static final int PAGE_SIZE = 20; // 每页显示的结果数，只有这一页的结果会读取字段和生成摘要
+	public static final int RESULT_CACHE_SIZE = 1000; // 最多缓存多少页搜索结果，0表示不缓存
+	public static final long RESULT_CACHE_TTL = 10 * 60 * 1000; // 每页结果最多缓存10分钟，索引刷新时会提前失效
+	public static final boolean INDEX_OFFSETS = true; // content是否记录偏移位置，记录后高亮不需要重新分词，改了之后要重建索引
+	// 压缩存放content的文件，content不再放进索引的存储字段，索引会小很多；为null时content存储在索引里，改了之后要重建索引
+	public static final String CONTENT_STORE_PATH = INDEX_PATH + "\\content.store";
+	public static final long METRICS_REPORT_MILLIS = 60 * 1000; // 每隔多久把建索引和搜索各阶段的指标写到日志，JMX里随时都能看到
+	
+	private SearchService searchService; // 搜索服务，打开一次之后一直复用
+	private ContentStore contentStore; // 建索引和搜索共用，第一次使用时打开
 	
 	/**
-	 * 创建索引
+	 * 创建索引，流式读取整张表
 	 */
 	public void creatIndex()
+	{
+		creatIndex(BlogIndexer.FetchMode.STREAM);
+	}
+	
+	/**
+	 * 创建索引，读数据库和建索引同时进行，不会把整张表读进内存
+	 * @param fetchMode 读取数据库的方式，STREAM为流式查询，KEYSET为按主键分页
+	 */
+	public void creatIndex(BlogIndexer.FetchMode fetchMode)
+	{
+		writeIndex(false, fetchMode);
+	}
+	
+	/**
+	 * 增量同步索引，只读取上次同步之后新增和修改过的文章，并删除已经不存在的文章
+	 */
+	public void updateIndex()
+	{
+		writeIndex(true, BlogIndexer.FetchMode.STREAM);
+	}
+	
+	/**
+	 * 写索引，同步的检查点和索引一起提交
+	 * @param incremental 是否增量同步，否则清除以前的index后全量重建
+	 */
+	private void writeIndex(boolean incremental, BlogIndexer.FetchMode fetchMode)
 	{
 		IndexWriter indexWriter = null;
+		boolean committed = false;
+		JdbcUtil jdbc = null;
 		try
 		{
 			Directory directory = FSDirectory.open(FileSystems.getDefault().getPath(INDEX_PATH));
 			//Analyzer analyzer = new StandardAnalyzer();
 			Analyzer analyzer = new IKAnalyzer(true);
-			IndexWriterConfig indexWriterConfig = new IndexWriterConfig(analyzer);
+			// 全量重建时用批量导入的配置，写完再合并段
+			boolean bulkLoad = !incremental && BULK_LOAD;
+			IndexWriterConfig indexWriterConfig = bulkLoad ? IndexWriterProfile.bulkLoad(analyzer, BULK_RAM_BUFFER_MB) : IndexWriterProfile.defaults(analyzer);
 			indexWriter = new IndexWriter(directory, indexWriterConfig);
-			indexWriter.deleteAll();// 清除以前的index
 			
-			JdbcUtil jdbc = new JdbcUtil(JDBC_URL, USER, PWD);
-			ResultSet rs = jdbc.query("select * from blog");
-			while(rs.next())
+			jdbc = new JdbcUtil(JDBC_URL, USER, PWD);
+			BlogIndexer indexer = new BlogIndexer(indexWriter, INDEX_THREADS, INDEX_QUEUE_SIZE);
+			indexer.setFetchMode(fetchMode);
+			indexer.setUpdateTimeColumn(UPDATE_TIME_COLUMN);
+			indexer.setIndexOffsets(INDEX_OFFSETS);
+			indexer.setContentStore(getContentStore());
+			if(incremental)
+				indexer.update(jdbc);
+			else
+			{
+				indexWriter.deleteAll();// 清除以前的index
+				if(getContentStore() != null) getContentStore().newGeneration(); // 正文写到新文件里，旧索引引用的旧文件不动
+				if(INDEX_SHARDS > 1)
+					indexSharded(indexWriter, indexer, analyzer, jdbc);
+				else
+				{
+					indexer.index(jdbc);
+					if(bulkLoad) IndexWriterProfile.finishBulkLoad(indexWriter, FORCE_MERGE_SEGMENTS);
+				}
+			}
+			// 有ContentStore时正文先落盘，当前的代数和索引一起提交
+			if(getContentStore() != null)
+				getContentStore().commit(indexWriter);
+			else
+				IndexMetrics.commit(indexWriter);
+			committed = true;
+			synchronized(this)
 			{
-				Document document = new Document();
-				document.add(new Field("id", rs.getString("id"), TextField.TYPE_STORED));
-				document.add(new Field("title", rs.getString("title"), TextField.TYPE_STORED));
-				document.add(new Field("content", rs.getString("content"), TextField.TYPE_STORED));
-				document.add(new Field("tag", rs.getString("tags"), TextField.TYPE_STORED));
-				document.add(new Field("url", rs.getString("url"), TextField.TYPE_STORED));
-				indexWriter.addDocument(document);
+				if(searchService != null) searchService.refresh(); // 让已经打开的搜索马上能搜到
 			}
-			jdbc.closeAll();
 		}
 		catch (Exception e)
 		{
@@ -71,9 +134,17 @@ public class DbSearchDemo
 		}
 		finally
 		{
+			if(jdbc != null) jdbc.close();
 			try
 			{
-				if(indexWriter != null) indexWriter.close();
+				// 没有提交成功时丢弃所有修改，搜索继续使用上次提交的索引和正文
+				if(indexWriter != null)
+				{
+					if(committed)
+						indexWriter.close();
+					else
+						indexWriter.rollback();
+				}
 			}
 			catch (Exception e)
 			{
@@ -83,82 +154,122 @@ public class DbSearchDemo
 	}
 	
 	/**
-	 * 搜索
+	 * 分片建索引：INDEX_SHARDS个IndexWriter同时写，完成后合并进indexWriter
 	 */
-	public void search(String keyWord)
+	private void indexSharded(IndexWriter indexWriter, BlogIndexer indexer, Analyzer analyzer, JdbcUtil jdbc) throws IOException, SQLException, InterruptedException
 	{
-		DirectoryReader directoryReader = null;
+		IndexShards shards = new IndexShards(SHARD_PATH, INDEX_SHARDS, analyzer, BULK_RAM_BUFFER_MB);
 		try
 		{
-			// 1、创建Directory
-			Directory directory = FSDirectory.open(FileSystems.getDefault().getPath(INDEX_PATH));
-			// 2、创建IndexReader
-			directoryReader = DirectoryReader.open(directory);
-			// 3、根据IndexReader创建IndexSearch
-			IndexSearcher indexSearcher = new IndexSearcher(directoryReader);
-			// 4、创建搜索的Query
-			// Analyzer analyzer = new StandardAnalyzer();
-			Analyzer analyzer = new IKAnalyzer(true); // 使用IK分词
-			
-			// 简单的查询，创建Query表示搜索域为content包含keyWord的文档
-			//Query query = new QueryParser("content", analyzer).parse(keyWord);
-			
+			indexer.setShardWriters(shards.getWriters());
+			indexer.index(jdbc);
+			shards.mergeInto(indexWriter, FORCE_MERGE_SEGMENTS);
+		}
+		finally
+		{
+			shards.close();
+		}
+	}
+	
+	/**
+	 * 获取搜索服务，第一次调用时打开索引，之后一直复用，用完后调用close()
+	 */
+	public synchronized SearchService getSearchService()
+	{
+		if(searchService == null)
+		{
 			String[] fields = {"title", "content", "tag"};
 			// MUST 表示and，MUST_NOT 表示not ，SHOULD表示or
 			BooleanClause.Occur[] clauses = {BooleanClause.Occur.SHOULD, BooleanClause.Occur.SHOULD, BooleanClause.Occur.SHOULD};
-			// MultiFieldQueryParser表示多个域解析， 同时可以解析含空格的字符串，如果我们搜索"上海 中国" 
-			Query multiFieldQuery = MultiFieldQueryParser.parse(keyWord, fields, clauses, analyzer);
-			
-			// 5、根据searcher搜索并且返回TopDocs
-			TopDocs topDocs = indexSearcher.search(multiFieldQuery, 100); // 搜索前100条结果
-			System.out.println("共找到匹配处：" + topDocs.totalHits);
-			// 6、根据TopDocs获取ScoreDoc对象
-			ScoreDoc[] scoreDocs = topDocs.scoreDocs;
-			System.out.println("共找到匹配文档数：" + scoreDocs.length);
-			
-			QueryScorer scorer = new QueryScorer(multiFieldQuery, "content");
-			SimpleHTMLFormatter htmlFormatter = new SimpleHTMLFormatter("<span style=\"backgroud:red\">", "</span>");
-			Highlighter highlighter = new Highlighter(htmlFormatter, scorer);
-			highlighter.setTextFragmenter(new SimpleSpanFragmenter(scorer));
-			for (ScoreDoc scoreDoc : scoreDocs)
+			searchService = new SearchService(INDEX_PATH, fields, clauses);
+			searchService.setPostingsHighlight(INDEX_OFFSETS);
+			searchService.setContentStore(getContentStore());
+			searchService.setLoadFields("title", "url"); // 只读取显示用的字段，content只在生成摘要时读取
+			searchService.setResultCache(RESULT_CACHE_SIZE, RESULT_CACHE_TTL);
+		}
+		return searchService;
+	}
+	
+	/**
+	 * 搜索，显示第一页
+	 */
+	public void search(String keyWord)
+	{
+		search(keyWord, 1);
+	}
+	
+	/**
+	 * 搜索，显示指定的一页
+	 * @param page 页码，从1开始
+	 */
+	public void search(String keyWord, int page)
+	{
+		try
+		{
+			SearchResult result = getSearchService().search(keyWord, (page - 1) * PAGE_SIZE, PAGE_SIZE, null);
+			System.out.println("共找到匹配处：" + result.getTotalHits());
+			System.out.println("第" + page + "页，本页文档数：" + result.getHits().size());
+			for (SearchHit hit : result.getHits())
 			{
-				// 7、根据searcher和ScoreDoc对象获取具体的Document对象
-				Document document = indexSearcher.doc(scoreDoc.doc);
-				String content = document.get("content");
-				//TokenStream tokenStream = new SimpleAnalyzer().tokenStream("content", new StringReader(content));
-				//TokenSources.getTokenStream("content", tvFields, content, analyzer, 100);
-				//TokenStream tokenStream = TokenSources.getAnyTokenStream(indexSearcher.getIndexReader(), scoreDoc.doc, "content", document, analyzer);
-				//System.out.println(highlighter.getBestFragment(tokenStream, content));
 				System.out.println("-----------------------------------------");
-				System.out.println("文章标题："+document.get("title"));
-				System.out.println("文章地址：" + document.get("url"));
+				System.out.println("文章标题："+hit.get("title"));
+				System.out.println("文章地址：" + hit.get("url"));
 				System.out.println("文章内容：");
-				System.out.println(highlighter.getBestFragment(analyzer, "content", content));
+				System.out.println(hit.getFragment());
 				System.out.println("");
-				// 8、根据Document对象获取需要的值
 			}
 		}
 		catch (Exception e)
 		{
 			e.printStackTrace();
 		}
-		finally
+	}
+	
+	/**
+	 * 获取存放content的ContentStore，没有配置CONTENT_STORE_PATH时返回null
+	 */
+	public synchronized ContentStore getContentStore()
+	{
+		if(contentStore == null && CONTENT_STORE_PATH != null)
 		{
 			try
 			{
-				if(directoryReader != null) directoryReader.close();
+				// 接着写索引最后一次提交时用的那一代文件
+				contentStore = new ContentStore(CONTENT_STORE_PATH, ContentStore.committedGeneration(INDEX_PATH));
 			}
-			catch (Exception e)
+			catch (IOException e)
 			{
-				e.printStackTrace();
+				throw new IllegalStateException("打开内容存储失败：" + CONTENT_STORE_PATH, e);
 			}
 		}
+		return contentStore;
+	}
+	
+	/**
+	 * 关闭搜索服务
+	 */
+	public synchronized void close()
+	{
+		try
+		{
+			if(searchService != null) searchService.close();
+			searchService = null;
+			if(contentStore != null) contentStore.close();
+			contentStore = null;
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
 	}
 
 	public static void main(String args[])
 	{
 		DbSearchDemo demo = new DbSearchDemo();
+		MetricsReporter reporter = new MetricsReporter(METRICS_REPORT_MILLIS);
 		demo.creatIndex();
 		demo.search("android");
+		demo.close();
+		reporter.close();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,91 @@
+package com.test;
+
+import com.test.search.FederatedSearchService;
+import com.test.search.SearchHit;
+import com.test.search.SearchResult;
+
+/**
+ * 一个搜索框同时搜索文件索引和数据库索引，两边的结果按分数合并显示<br>
+ * 两个索引分别由{@link FileSearchDemo}和{@link DbSearchDemo}建立，这里直接使用它们的搜索服务
+ * @author liuxianan
+ */
+public class FederatedSearchDemo
+{
+	public static final int PAGE_SIZE = 20; // 每页显示的结果数
+	public static final float FILE_BOOST = 1.0f; // 文件结果的权重
+	public static final float BLOG_BOOST = 1.0f; // 文章结果的权重，想让文章排在前面可以调大
+
+	private final FileSearchDemo fileDemo = new FileSearchDemo();
+	private final DbSearchDemo dbDemo = new DbSearchDemo();
+	private FederatedSearchService searchService;
+
+	/**
+	 * 获取搜索服务，第一次调用时创建，之后一直复用，用完后调用close()
+	 */
+	public synchronized FederatedSearchService getSearchService()
+	{
+		if(searchService == null)
+		{
+			searchService = new FederatedSearchService();
+			// 文件的字段映射成和文章一样的名字，显示时不用区分
+			searchService.addIndex("file", fileDemo.getSearchService())
+					.setBoost(FILE_BOOST)
+					.mapField("title", "fileName")
+					.mapField("url", "filePath");
+			searchService.addIndex("blog", dbDemo.getSearchService())
+					.setBoost(BLOG_BOOST);
+		}
+		return searchService;
+	}
+
+	/**
+	 * 搜索，显示第一页
+	 */
+	public void search(String keyWord)
+	{
+		search(keyWord, 1);
+	}
+
+	/**
+	 * 搜索，显示指定的一页
+	 * @param page 页码，从1开始
+	 */
+	public void search(String keyWord, int page)
+	{
+		try
+		{
+			SearchResult result = getSearchService().search(keyWord, (page - 1) * PAGE_SIZE, PAGE_SIZE);
+			System.out.println("共找到匹配处：" + result.getTotalHits());
+			System.out.println("第" + page + "页，本页文档数：" + result.getHits().size());
+			for (SearchHit hit : result.getHits())
+			{
+				System.out.println("-----------------------------------------");
+				System.out.println("[" + hit.getIndex() + "] " + hit.get("title") + "：" + hit.get("url"));
+				System.out.println(hit.getFragment());
+				System.out.println("");
+			}
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * 关闭搜索服务
+	 */
+	public synchronized void close()
+	{
+		if(searchService != null) searchService.close();
+		searchService = null;
+		fileDemo.close();
+		dbDemo.close();
+	}
+
+	public static void main(String args[])
+	{
+		FederatedSearchDemo demo = new FederatedSearchDemo();
+		demo.search("android");
+		demo.close();
+	}
+}
@@ -1,37 +1,37 @@
 package com.test;
 
-import java.io.File;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.nio.file.FileSystems;
-import java.util.List;
 
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.FuzzyQuery;
-import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.PrefixQuery;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.TermQuery;
-import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.WildcardQuery;
-import org.apache.lucene.search.highlight.Highlighter;
-import org.apache.lucene.search.highlight.QueryScorer;
-import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
-import org.apache.lucene.search.highlight.SimpleSpanFragmenter;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.wltea.analyzer.lucene.IKAnalyzer;
 
-import com.test.util.FileUtil;
+import com.test.index.ContentStore;
+import com.test.index.FileDocumentBuilder;
+import com.test.index.FileWatchIndexer;
+import com.test.index.IndexMetrics;
+import com.test.index.IndexShards;
+import com.test.index.IndexWriterProfile;
+import com.test.index.ParallelFileIndexer;
+import com.test.metrics.MetricsReporter;
+import com.test.search.SearchHit;
+import com.test.search.SearchResult;
+import com.test.search.SearchService;
 
 /**
  * 基于Lucene5.5.4的文件搜索demo
@@ -43,31 +43,105 @@ public class FileSearchDemo
 	public static final String INDEX_PATH = "E:\\lucene"; // 存放Lucene索引文件的位置
 	public static final String SCAN_PATH = "E:\\text"; // 需要被扫描的位置，测试的时候记得多在这下面放一些文件
 	
+	public static final int INDEX_THREADS = Runtime.getRuntime().availableProcessors(); // 建索引的线程数，默认和CPU核数一致
+	public static final int INDEX_QUEUE_SIZE = 1000; // 待索引文件队列的长度
+	public static final boolean BULK_LOAD = true; // 全量重建时是否用批量导入的配置，见IndexWriterProfile
+	public static final double BULK_RAM_BUFFER_MB = 256; // 批量导入时的内存缓冲区，JVM的堆要留出这么多
+	public static final int FORCE_MERGE_SEGMENTS = 1; // 批量导入后合并成几个段，0表示不合并
+	// 全量重建时分几个分片同时写，写完用addIndexes合并进索引，小于等于1表示不分片；线程多时一个IndexWriter的刷新和合并会成为瓶颈，每个分片4个线程左右
+	public static final int INDEX_SHARDS = INDEX_THREADS > 8 ? (INDEX_THREADS + 3) / 4 : 1;
+	public static final String SHARD_PATH = INDEX_PATH + "-shards"; // 分片的临时目录，合并后删除
+	public static final int PAGE_SIZE = 20; // 每页显示的结果数，只有这一页的结果会读取字段和生成摘要
+	public static final int RESULT_CACHE_SIZE = 1000; // 最多缓存多少页搜索结果，0表示不缓存
+	public static final long RESULT_CACHE_TTL = 10 * 60 * 1000; // 每页结果最多缓存10分钟，索引刷新时会提前失效
+	public static final int MAX_STORED_CHARS = 64 * 1024; // 每个文件最多存储的字符数，用于显示摘要，超过的部分只索引不存储
+	public static final boolean INDEX_OFFSETS = true; // content是否记录偏移位置，记录后高亮不需要重新分词，改了之后要重建索引
+	// 压缩存放content的文件，content不再放进索引的存储字段，索引会小很多；为null时content存储在索引里，改了之后要重建索引
+	public static final String CONTENT_STORE_PATH = INDEX_PATH + "\\content.store";
+	public static final long METRICS_REPORT_MILLIS = 60 * 1000; // 每隔多久把建索引和搜索各阶段的指标写到日志，JMX里随时都能看到
+	
+	private SearchService searchService; // 搜索服务，打开一次之后一直复用
+	private ContentStore contentStore; // 建索引和搜索共用，第一次使用时打开
+	
 	/**
 	 * 创建索引
 	 */
 	public void creatIndex()
+	{
+		creatIndex(INDEX_THREADS, INDEX_QUEUE_SIZE);
+	}
+	
+	/**
+	 * 多线程创建索引，一个线程负责扫描文件，多个线程负责读取文件和写索引
+	 * @param threads 写索引的线程数
+	 * @param queueSize 待索引文件队列的长度
+	 */
+	public void creatIndex(int threads, int queueSize)
+	{
+		writeIndex(false, threads, queueSize);
+	}
+	
+	/**
+	 * 增量更新索引，只重新索引新增和修改过的文件，并删除已经不存在的文件
+	 */
+	public void updateIndex()
+	{
+		updateIndex(INDEX_THREADS, INDEX_QUEUE_SIZE);
+	}
+	
+	/**
+	 * 增量更新索引
+	 * @param threads 写索引的线程数
+	 * @param queueSize 待索引文件队列的长度
+	 */
+	public void updateIndex(int threads, int queueSize)
+	{
+		writeIndex(true, threads, queueSize);
+	}
+	
+	/**
+	 * 写索引
+	 * @param incremental 是否增量更新，否则清除以前的index后全量重建
+	 */
+	private void writeIndex(boolean incremental, int threads, int queueSize)
 	{
 		IndexWriter indexWriter = null;
+		boolean committed = false;
 		try
 		{
 			Directory directory = FSDirectory.open(FileSystems.getDefault().getPath(INDEX_PATH));
 			//Analyzer analyzer = new StandardAnalyzer();
 			Analyzer analyzer = new IKAnalyzer(true);
-			IndexWriterConfig indexWriterConfig = new IndexWriterConfig(analyzer);
+			// 全量重建时用批量导入的配置，写完再合并段
+			boolean bulkLoad = !incremental && BULK_LOAD;
+			IndexWriterConfig indexWriterConfig = bulkLoad ? IndexWriterProfile.bulkLoad(analyzer, BULK_RAM_BUFFER_MB) : IndexWriterProfile.defaults(analyzer);
 			indexWriter = new IndexWriter(directory, indexWriterConfig);
-			indexWriter.deleteAll();// 清除以前的index
-			// 获取被扫描目录下的所有文件，包括子目录
-			List<File> files = FileUtil.listAllFiles(SCAN_PATH);
-			for(int i=0; i<files.size(); i++)
+			// 扫描目录下的所有文件，包括子目录，多线程写入索引
+			ParallelFileIndexer indexer = new ParallelFileIndexer(indexWriter, threads, queueSize);
+			indexer.setDocumentBuilder(createDocumentBuilder());
+			if(incremental)
+				indexer.update(SCAN_PATH);
+			else
 			{
-				Document document = new Document();
-				File file = files.get(i);
-				document.add(new Field("content", FileUtil.readFile(file.getAbsolutePath()), TextField.TYPE_STORED));
-				document.add(new Field("fileName", file.getName(), TextField.TYPE_STORED));
-				document.add(new Field("filePath", file.getAbsolutePath(), TextField.TYPE_STORED));
-				document.add(new Field("updateTime", file.lastModified()+"", TextField.TYPE_STORED));
-				indexWriter.addDocument(document);
+				indexWriter.deleteAll();// 清除以前的index
+				if(getContentStore() != null) getContentStore().newGeneration(); // 正文写到新文件里，旧索引引用的旧文件不动
+				if(INDEX_SHARDS > 1)
+					indexSharded(indexWriter, indexer, analyzer);
+				else
+				{
+					indexer.index(SCAN_PATH);
+					if(bulkLoad) IndexWriterProfile.finishBulkLoad(indexWriter, FORCE_MERGE_SEGMENTS);
+				}
+			}
+			// 有ContentStore时正文先落盘，当前的代数和索引一起提交
+			if(getContentStore() != null)
+				getContentStore().commit(indexWriter);
+			else
+				IndexMetrics.commit(indexWriter);
+			committed = true;
+			synchronized(this)
+			{
+				if(searchService != null) searchService.refresh(); // 让已经打开的搜索马上能搜到
 			}
 		}
 		catch (Exception e)
@@ -78,7 +152,14 @@ public class FileSearchDemo
 		{
 			try
 			{
-				if(indexWriter != null) indexWriter.close();
+				// 没有提交成功时丢弃所有修改，搜索继续使用上次提交的索引和正文
+				if(indexWriter != null)
+				{
+					if(committed)
+						indexWriter.close();
+					else
+						indexWriter.rollback();
+				}
 			}
 			catch (Exception e)
 			{
@@ -88,79 +169,224 @@ public class FileSearchDemo
 	}
 	
 	/**
-	 * 搜索
+	 * 分片建索引：INDEX_SHARDS个IndexWriter同时写，完成后合并进indexWriter
+	 */
+	private void indexSharded(IndexWriter indexWriter, ParallelFileIndexer indexer, Analyzer analyzer) throws IOException, InterruptedException
+	{
+		IndexShards shards = new IndexShards(SHARD_PATH, INDEX_SHARDS, analyzer, BULK_RAM_BUFFER_MB);
+		try
+		{
+			indexer.setShardWriters(shards.getWriters());
+			indexer.index(SCAN_PATH);
+			shards.mergeInto(indexWriter, FORCE_MERGE_SEGMENTS);
+		}
+		finally
+		{
+			shards.close();
+		}
+	}
+	
+	/**
+	 * 流式读取文件，很大的文件也不会整个读进内存
+	 */
+	private FileDocumentBuilder createDocumentBuilder()
+	{
+		FileDocumentBuilder builder = new FileDocumentBuilder();
+		builder.setMaxStoredChars(MAX_STORED_CHARS);
+		builder.setIndexOffsets(INDEX_OFFSETS);
+		builder.setContentStore(getContentStore());
+		return builder;
+	}
+	
+	/**
+	 * 常驻模式：监听扫描目录，文件有变化时实时更新索引，需调用返回对象的close()停止
+	 * @param refreshMillis 搜索端重新打开索引的间隔，也就是新文件最多多久能被搜到
+	 */
+	public FileWatchIndexer watch(long refreshMillis) throws IOException
+	{
+		Directory directory = FSDirectory.open(FileSystems.getDefault().getPath(INDEX_PATH));
+		IndexWriter indexWriter = new IndexWriter(directory, IndexWriterProfile.defaults(new IKAnalyzer(true)));
+		FileWatchIndexer watcher = new FileWatchIndexer(indexWriter, SCAN_PATH);
+		watcher.setDocumentBuilder(createDocumentBuilder());
+		watcher.setRefreshMillis(refreshMillis);
+		watcher.start();
+		return watcher;
+	}
+	
+	/**
+	 * 获取搜索服务，第一次调用时打开索引，之后一直复用，用完后调用close()
+	 */
+	public synchronized SearchService getSearchService()
+	{
+		if(searchService == null)
+			searchService = createSearchService(null);
+		return searchService;
+	}
+	
+	/**
+	 * 创建搜索服务
+	 * @param searcherManager 为null时打开INDEX_PATH下的索引，否则使用已有的，比如常驻模式下从IndexWriter打开的
+	 */
+	private SearchService createSearchService(SearcherManager searcherManager)
+	{
+		String[] fields = {"fileName", "content"}; // 要搜索的字段，一般搜索时都不会只搜索一个字段
+		// 字段之间的与或非关系，MUST表示and，MUST_NOT表示not，SHOULD表示or，有几个fields就必须有几个clauses
+		BooleanClause.Occur[] clauses = {BooleanClause.Occur.SHOULD, BooleanClause.Occur.SHOULD};
+		SearchService searchService = searcherManager == null ? new SearchService(INDEX_PATH, fields, clauses) : new SearchService(searcherManager, fields, clauses);
+		searchService.setPostingsHighlight(INDEX_OFFSETS);
+		searchService.setContentStore(getContentStore());
+		searchService.setLoadFields("fileName", "filePath"); // 只读取显示用的字段，content只在生成摘要时读取
+		searchService.setResultCache(RESULT_CACHE_SIZE, RESULT_CACHE_TTL);
+		return searchService;
+	}
+	
+	/**
+	 * 搜索，显示第一页
 	 */
 	public void search(String keyWord)
 	{
-		DirectoryReader directoryReader = null;
+		search(keyWord, 1);
+	}
+	
+	/**
+	 * 搜索，显示指定的一页
+	 * @param page 页码，从1开始
+	 */
+	public void search(String keyWord, int page)
+	{
+		search(getSearchService(), keyWord, page, null);
+	}
+	
+	/**
+	 * 用指定的搜索服务搜索并打印第一页
+	 */
+	public void search(SearchService searchService, String keyWord)
+	{
+		search(searchService, keyWord, 1, null);
+	}
+	
+	/**
+	 * 搜索并按修改时间从新到旧排列，updateTime带DocValues，排序不需要读取存储的字段
+	 */
+	public void searchLatest(String keyWord)
+	{
+		search(getSearchService(), keyWord, 1, new Sort(FileDocumentBuilder.SCHEMA.sortField("updateTime", true)));
+	}
+	
+	private void search(SearchService searchService, String keyWord, int page, Sort sort)
+	{
 		try
 		{
-			// 1、创建Directory
-			Directory directory = FSDirectory.open(FileSystems.getDefault().getPath(INDEX_PATH));
-			// 2、创建IndexReader
-			directoryReader = DirectoryReader.open(directory);
-			// 3、根据IndexReader创建IndexSearch
-			IndexSearcher indexSearcher = new IndexSearcher(directoryReader);
-			// 4、创建搜索的Query
-			// Analyzer analyzer = new StandardAnalyzer();
-			Analyzer analyzer = new IKAnalyzer(true); // 使用IK分词
-			
-			// 简单的查询，创建Query表示搜索域为content包含keyWord的文档
-			//Query query = new QueryParser("content", analyzer).parse(keyWord);
-			
-			String[] fields = {"fileName", "content"}; // 要搜索的字段，一般搜索时都不会只搜索一个字段
-			// 字段之间的与或非关系，MUST表示and，MUST_NOT表示not，SHOULD表示or，有几个fields就必须有几个clauses
-			BooleanClause.Occur[] clauses = {BooleanClause.Occur.SHOULD, BooleanClause.Occur.SHOULD};
-			// MultiFieldQueryParser表示多个域解析， 同时可以解析含空格的字符串，如果我们搜索"上海 中国" 
-			Query multiFieldQuery = MultiFieldQueryParser.parse(keyWord, fields, clauses, analyzer);
-			
-			// 5、根据searcher搜索并且返回TopDocs
-			TopDocs topDocs = indexSearcher.search(multiFieldQuery, 100); // 搜索前100条结果
-			System.out.println("共找到匹配处：" + topDocs.totalHits); // totalHits和scoreDocs.length的区别还没搞明白
-			// 6、根据TopDocs获取ScoreDoc对象
-			ScoreDoc[] scoreDocs = topDocs.scoreDocs;
-			System.out.println("共找到匹配文档数：" + scoreDocs.length);
-			
-			QueryScorer scorer = new QueryScorer(multiFieldQuery, "content");
-			// 自定义高亮代码
-			SimpleHTMLFormatter htmlFormatter = new SimpleHTMLFormatter("<span style=\"backgroud:red\">", "</span>");
-			Highlighter highlighter = new Highlighter(htmlFormatter, scorer);
-			highlighter.setTextFragmenter(new SimpleSpanFragmenter(scorer));
-			for (ScoreDoc scoreDoc : scoreDocs)
-			{
-				// 7、根据searcher和ScoreDoc对象获取具体的Document对象
-				Document document = indexSearcher.doc(scoreDoc.doc);
-				//TokenStream tokenStream = new SimpleAnalyzer().tokenStream("content", new StringReader(content));
-				//TokenSources.getTokenStream("content", tvFields, content, analyzer, 100);
-				//TokenStream tokenStream = TokenSources.getAnyTokenStream(indexSearcher.getIndexReader(), scoreDoc.doc, "content", document, analyzer);
-				//System.out.println(highlighter.getBestFragment(tokenStream, content));
-				System.out.println("-----------------------------------------");
-				System.out.println(document.get("fileName") + ":" + document.get("filePath"));
-				System.out.println(highlighter.getBestFragment(analyzer, "content", document.get("content")));
-				System.out.println("");
-			}
+			SearchResult result = searchService.search(keyWord, (page - 1) * PAGE_SIZE, PAGE_SIZE, sort);
+			System.out.println("第" + page + "页");
+			print(result);
 		}
 		catch (Exception e)
 		{
 			e.printStackTrace();
 		}
-		finally
+	}
+	
+	/**
+	 * 用游标翻页搜索并打印，适合“加载更多”式的连续翻页，翻到多深都和第一页一样快
+	 * @param cursor 上一页返回的游标，为null时搜索第一页
+	 * @return 下一页的游标，没有下一页时返回null
+	 */
+	public String searchAfter(SearchService searchService, String keyWord, String cursor)
+	{
+		try
+		{
+			SearchResult result = searchService.searchAfter(keyWord, cursor, PAGE_SIZE, null);
+			print(result);
+			return result.getNextCursor();
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	private void print(SearchResult result)
+	{
+		System.out.println("共找到匹配处：" + result.getTotalHits()); // totalHits和scoreDocs.length的区别还没搞明白
+		System.out.println("本页文档数：" + result.getHits().size());
+		for (SearchHit hit : result.getHits())
+		{
+			System.out.println("-----------------------------------------");
+			System.out.println(hit.get("fileName") + ":" + hit.get("filePath"));
+			System.out.println(hit.getFragment());
+			System.out.println("");
+		}
+	}
+	
+	/**
+	 * 获取存放content的ContentStore，没有配置CONTENT_STORE_PATH时返回null
+	 */
+	public synchronized ContentStore getContentStore()
+	{
+		if(contentStore == null && CONTENT_STORE_PATH != null)
 		{
 			try
 			{
-				if(directoryReader != null) directoryReader.close();
+				// 接着写索引最后一次提交时用的那一代文件
+				contentStore = new ContentStore(CONTENT_STORE_PATH, ContentStore.committedGeneration(INDEX_PATH));
 			}
-			catch (Exception e)
+			catch (IOException e)
 			{
-				e.printStackTrace();
+				throw new IllegalStateException("打开内容存储失败：" + CONTENT_STORE_PATH, e);
 			}
 		}
+		return contentStore;
+	}
+	
+	/**
+	 * 关闭搜索服务
+	 */
+	public synchronized void close()
+	{
+		try
+		{
+			if(searchService != null) searchService.close();
+			searchService = null;
+			if(contentStore != null) contentStore.close();
+			contentStore = null;
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
 	}
 
-	public static void main(String args[])
+	public static void main(String args[]) throws Exception
 	{
 		FileSearchDemo demo = new FileSearchDemo();
+		MetricsReporter reporter = new MetricsReporter(METRICS_REPORT_MILLIS);
+		if(args.length > 0 && "watch".equals(args[0]))
+		{
+			// 常驻模式，每输入一行就搜索一次，直接回车显示下一页，新建修改的文件一秒内就能搜到
+			FileWatchIndexer watcher = demo.watch(1000);
+			SearchService searchService = demo.createSearchService(watcher.getSearcherManager());
+			BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+			String line, keyWord = null, cursor = null;
+			while((line = in.readLine()) != null)
+			{
+				if(line.trim().length() > 0)
+				{
+					keyWord = line;
+					cursor = demo.searchAfter(searchService, keyWord, null);
+				}
+				else if(cursor != null)
+					cursor = demo.searchAfter(searchService, keyWord, cursor);
+			}
+			searchService.close();
+			watcher.close();
+			reporter.close();
+			return;
+		}
 		demo.creatIndex();
 		demo.search("读取 导出");
+		demo.close();
+		reporter.close();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+package com.test.index;
+
+import java.io.IOException;
+
+import org.apache.lucene.document.Document;
+
+/**
+ * 把blog表的一行数据转换成Lucene的Document<br>
+ * 一行数据按{@link #COLUMNS}的顺序读成String数组，这样读取数据库的线程和创建文档的线程之间只需要传递一个数组<br>
+ * 字段按{@link #SCHEMA}定义，每个实例只创建一次文档和各个字段，之后每行只更新字段的值，返回的文档在下一次build()之前写入索引即可，
+ * 所以每个实例同一时刻只能处理一行，多线程时每个线程创建一个
+ * @author liuxianan
+ */
+public class BlogDocumentBuilder
+{
+	/** 需要查询的列，顺序和build()的参数一致 */
+	public static final String[] COLUMNS = {"id", "title", "content", "tags", "url"};
+	/** 每一列对应的字段名 */
+	private static final String[] FIELDS = {"id", "title", "content", "tag", "url"};
+	private static final int CONTENT = 2; // content在一行数据里的位置
+	/** 修改时间在一行数据里的位置，值是毫秒数，没有修改时间的列时为null */
+	public static final int UPDATE_TIME = COLUMNS.length;
+
+	/**
+	 * 文章索引的结构：id不分词，增量同步时按它精确地替换和删除文档；title、content、tag分词；
+	 * url不分词只用于显示和精确查找；updateTime是数值，带DocValues，可以按时间过滤和排序
+	 */
+	public static final IndexSchema SCHEMA = new IndexSchema()
+			.keyword("id", true, false)
+			.text("title", true)
+			.text("content", true)
+			.text("tag", true)
+			.keyword("url", true, false)
+			.longField("updateTime", true, true);
+	/** 同上，content记录偏移位置，搜索时可以不重新分词直接高亮 */
+	public static final IndexSchema OFFSETS_SCHEMA = SCHEMA.withOffsets("content");
+
+	private final SchemaDocument document; // 重复使用的文档
+	private final ContentStore contentStore;
+
+	public BlogDocumentBuilder()
+	{
+		this(false, null);
+	}
+
+	/**
+	 * @param indexOffsets content是否记录偏移位置
+	 * @param contentStore 不为null时content压缩后存放在这里，文档只记录位置
+	 */
+	public BlogDocumentBuilder(boolean indexOffsets, ContentStore contentStore)
+	{
+		IndexSchema schema = indexOffsets ? OFFSETS_SCHEMA : SCHEMA;
+		if(contentStore != null) schema = schema.withoutStored("content").docValues(ContentStore.POINTER_FIELD);
+		this.document = new SchemaDocument(schema);
+		this.contentStore = contentStore;
+	}
+
+	/**
+	 * 查询语句的select部分，如“id, title, content, tags, url”
+	 */
+	public static String selectColumns()
+	{
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<COLUMNS.length; i++)
+		{
+			if(i > 0) sb.append(", ");
+			sb.append(COLUMNS[i]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 设置好文档各个字段的值
+	 * @param row 按COLUMNS顺序排列的一行数据，后面可以再加上修改时间，id不能为null，其它为null的列不会加入文档
+	 * @return 文档，每次返回的都是同一个对象
+	 * @throws IOException 写入ContentStore失败
+	 */
+	public Document build(String[] row) throws IOException
+	{
+		for(int i=0; i<FIELDS.length; i++)
+			document.set(FIELDS[i], row[i]);
+		if(contentStore != null)
+		{
+			String content = row[CONTENT];
+			if(content == null)
+				document.remove(ContentStore.POINTER_FIELD);
+			else
+				document.set(ContentStore.POINTER_FIELD, contentStore.write(content));
+		}
+		document.set("updateTime", row.length > UPDATE_TIME ? row[UPDATE_TIME] : null);
+		return document.getDocument();
+	}
+}
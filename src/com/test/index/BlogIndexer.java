@@ -0,0 +1,521 @@
+package com.test.index;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.test.util.JdbcUtil;
+import com.test.util.RowIterator;
+import com.test.util.RowMapper;
+
+/**
+ * 多线程的数据库索引流水线：当前线程从blog表读取数据，一行一行放入{@link IndexPipeline}的有界队列，
+ * 若干个工作线程创建Document后写入共享的IndexWriter，读数据库和建索引同时进行<br>
+ * 读取方式有两种，都不会把整张表读进内存：<br>
+ * 1、STREAM：一条流式查询读完整张表，见{@link JdbcUtil#queryStream(String, String...)}，最快，但整个过程占用一个连接<br>
+ * 2、KEYSET：按主键分页，每页都是“where id > 上一页最后的id order by id limit pageSize”，
+ * 每页都走主键索引，不会像limit offset那样越往后越慢，每页查完就释放结果集，适合不支持流式查询或者需要断点续读的情况<br>
+ * 队列满时读数据库的线程会被阻塞，所以内存占用只和队列长度、每行的大小有关，和表的总行数无关<br>
+ * 支持全量（{@link #index(JdbcUtil)}）和增量（{@link #update(JdbcUtil)}）两种模式，读到的最大id和最大修改时间作为检查点
+ * 放在IndexWriter的commitData里，和索引一起提交，不会出现索引已提交而检查点没保存（或者反过来）的情况<br>
+ * 同一时间只能执行一个index()或update()
+ * @author liuxianan
+ */
+public class BlogIndexer
+{
+	private static final Logger log = LoggerFactory.getLogger(BlogIndexer.class);
+	/** commitData里保存已索引的最大id的key */
+	public static final String CHECKPOINT_ID = "blog.lastId";
+	/** commitData里保存已索引的最大修改时间（毫秒）的key */
+	public static final String CHECKPOINT_UPDATE_TIME = "blog.lastUpdateTime";
+
+	/**
+	 * 读取数据库的方式
+	 */
+	public enum FetchMode
+	{
+		/** 一条流式查询读完整张表 */
+		STREAM,
+		/** 按主键分页读取 */
+		KEYSET
+	}
+
+	private final IndexWriter indexWriter;
+	private IndexWriter[] shardWriters; // 不为null时全量索引写到这些分片，检查点仍然记录在indexWriter
+	private final int threads;
+	private final int queueSize;
+	private FetchMode fetchMode = FetchMode.STREAM;
+	private int pageSize = 1000;
+	private String updateTimeColumn; // 记录修改时间的列，为null表示没有，增量同步时只能发现新增和删除
+	private boolean detectDeletes = true;
+	private boolean indexOffsets = false;
+	private ContentStore contentStore;
+	// 以下是读取过程中的状态，只在读数据库的线程里访问
+	private long rows;
+	private long maxId;
+	private long maxUpdateTime;
+
+	/**
+	 * @param indexWriter 共享的IndexWriter，由调用者负责提交和关闭
+	 * @param threads 工作线程数
+	 * @param queueSize 待索引数据队列的长度
+	 */
+	public BlogIndexer(IndexWriter indexWriter, int threads, int queueSize)
+	{
+		this.indexWriter = indexWriter;
+		this.threads = threads;
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * 设置读取数据库的方式，默认为STREAM
+	 */
+	public void setFetchMode(FetchMode fetchMode)
+	{
+		this.fetchMode = fetchMode;
+	}
+
+	/**
+	 * 设置KEYSET方式每页的行数，默认1000
+	 */
+	public void setPageSize(int pageSize)
+	{
+		if(pageSize < 1) throw new IllegalArgumentException("pageSize必须大于0：" + pageSize);
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * 设置记录修改时间的列，增量同步时只读取修改时间不早于上次检查点的行，这样修改过的文章也能同步；
+	 * 不设置时只能按自增id读取新增的行。blog表原本没有这一列，可以这样加上（修改时MySQL会自动更新）：<br>
+	 * ALTER TABLE blog ADD COLUMN update_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, ADD INDEX idx_update_time (update_time);
+	 * @param updateTimeColumn 列名，如update_time
+	 */
+	public void setUpdateTimeColumn(String updateTimeColumn)
+	{
+		this.updateTimeColumn = updateTimeColumn;
+	}
+
+	/**
+	 * 设置增量同步时是否检查已删除的行，默认检查，需要读一遍表里所有的id
+	 */
+	public void setDetectDeletes(boolean detectDeletes)
+	{
+		this.detectDeletes = detectDeletes;
+	}
+
+	/**
+	 * 设置content是否记录偏移位置，配合{@link com.test.search.SearchService#setPostingsHighlight(boolean)}使用，默认不记录
+	 */
+	public void setIndexOffsets(boolean indexOffsets)
+	{
+		this.indexOffsets = indexOffsets;
+	}
+
+	/**
+	 * 设置存放content的ContentStore，为null（默认）时content存放在索引里；由调用者在提交索引之前调用它的sync()
+	 */
+	public void setContentStore(ContentStore contentStore)
+	{
+		this.contentStore = contentStore;
+	}
+
+	/**
+	 * 全量索引时写到多个分片，见{@link IndexShards}，第i个工作线程写第i % 分片数个分片<br>
+	 * 检查点仍然设置在构造时传入的IndexWriter上，分片合并进来之后和它一起提交
+	 * @param shardWriters 为null表示不分片
+	 */
+	public void setShardWriters(IndexWriter[] shardWriters)
+	{
+		if(shardWriters != null && shardWriters.length == 0) throw new IllegalArgumentException("至少需要一个分片");
+		this.shardWriters = shardWriters;
+	}
+
+	/**
+	 * 读取blog表的所有数据并建立索引，会一直阻塞到所有数据都处理完毕，调用者需要事先清空索引<br>
+	 * 完成后设置检查点，调用者commit()时一起提交
+	 * @param jdbc 数据库连接，由调用者负责关闭
+	 * @return 成功写入索引的文档数
+	 * @throws IOException 写索引时出现致命错误
+	 * @throws SQLException 查询数据库出错
+	 * @throws InterruptedException
+	 */
+	public long index(JdbcUtil jdbc) throws IOException, SQLException, InterruptedException
+	{
+		long count = run(jdbc, false, null, null);
+		saveCheckpoint(true);
+		log.info("数据库索引完成，共读取{}行，索引{}个文档", rows, count);
+		return count;
+	}
+
+	/**
+	 * 增量同步：只读取上次检查点之后新增（以及设置了修改时间列时修改过）的行，按id替换索引中的文档，
+	 * 再对比表里所有的id，删除索引中已经不存在的文章<br>
+	 * 索引中还没有检查点时会读取整张表，完成后设置新的检查点，调用者commit()时一起提交<br>
+	 * 注意：依赖不分词的id字段，旧版本建立的索引需要先全量重建一次
+	 * @param jdbc 数据库连接，由调用者负责关闭
+	 * @return 重新写入索引的文档数
+	 * @throws IOException 写索引时出现致命错误
+	 * @throws SQLException 查询数据库出错
+	 * @throws InterruptedException
+	 */
+	public long update(JdbcUtil jdbc) throws IOException, SQLException, InterruptedException
+	{
+		Map<String, String> checkpoint = indexWriter.getCommitData();
+		Long lastId = parseLong(checkpoint.get(CHECKPOINT_ID));
+		Long lastUpdateTime = parseLong(checkpoint.get(CHECKPOINT_UPDATE_TIME));
+		long count;
+		if(updateTimeColumn != null)
+			count = run(jdbc, true, null, lastUpdateTime == null ? Long.valueOf(Long.MIN_VALUE) : lastUpdateTime);
+		else
+			count = run(jdbc, true, lastId, null);
+		if(lastId != null) maxId = Math.max(maxId, lastId);
+		if(lastUpdateTime != null) maxUpdateTime = Math.max(maxUpdateTime, lastUpdateTime);
+		int deleted = detectDeletes ? deleteRemoved(jdbc) : 0;
+		saveCheckpoint(false);
+		log.info("数据库增量同步完成，读取{}行，重新索引{}个，删除{}个", new Object[]{rows, count, deleted});
+		return count;
+	}
+
+	/**
+	 * 执行索引流水线
+	 * @param update 是否按id替换已有的文档
+	 * @param fromId 只读取id大于它的行，为null表示不限制
+	 * @param fromUpdateTime 只读取修改时间不早于它的行，为null表示不按修改时间读取
+	 */
+	private long run(JdbcUtil jdbc, final boolean update, Long fromId, Long fromUpdateTime) throws IOException, SQLException, InterruptedException
+	{
+		IndexPipeline<String[]> pipeline = new IndexPipeline<String[]>("db-indexer", threads, queueSize, new IndexPipeline.WorkerFactory<String[]>()
+		{
+			private int workers = 0;
+
+			@Override
+			public IndexPipeline.Worker<String[]> newWorker()
+			{
+				// 增量模式要按id替换文档，只能写到原来的索引
+				IndexWriter writer = update || shardWriters == null ? indexWriter : shardWriters[workers % shardWriters.length];
+				workers++;
+				return new Worker(writer, update);
+			}
+		});
+		rows = 0;
+		maxId = Long.MIN_VALUE;
+		maxUpdateTime = Long.MIN_VALUE;
+		try
+		{
+			pipeline.start();
+			if(fromUpdateTime != null)
+				fetchChanges(jdbc, pipeline, fromUpdateTime);
+			else if(fetchMode == FetchMode.KEYSET || fromId != null)
+				fetchByKeyset(jdbc, pipeline, fromId);
+			else
+				fetchByStream(jdbc, pipeline);
+			return pipeline.finish();
+		}
+		catch (CancellationException e)
+		{
+			// 工作线程出错导致读取中止，由finish()抛出具体的错误
+			pipeline.finish();
+			throw e;
+		}
+		finally
+		{
+			pipeline.close();
+		}
+	}
+
+	/**
+	 * 一条流式查询读完整张表
+	 */
+	private void fetchByStream(JdbcUtil jdbc, IndexPipeline<String[]> pipeline) throws SQLException, InterruptedException
+	{
+		fetch(jdbc.iterateStream("select " + selectColumns() + " from blog", new BlogRowMapper()), pipeline);
+	}
+
+	/**
+	 * 流式读取修改时间不早于某个时间点的行，同一时间修改的可能有一部分上次没读到，所以包括等于的
+	 */
+	private void fetchChanges(JdbcUtil jdbc, IndexPipeline<String[]> pipeline, long fromUpdateTime) throws SQLException, InterruptedException
+	{
+		RowIterator<String[]> iterator;
+		if(fromUpdateTime == Long.MIN_VALUE)
+			iterator = jdbc.iterateStream("select " + selectColumns() + " from blog", new BlogRowMapper());
+		else
+			iterator = jdbc.iterateStream("select " + selectColumns() + " from blog where " + updateTimeColumn + " >= ? order by " + updateTimeColumn,
+					new BlogRowMapper(), new Timestamp(fromUpdateTime).toString());
+		fetch(iterator, pipeline);
+	}
+
+	/**
+	 * 按主键分页读取，每页的结果集读完就关闭
+	 * @param fromId 只读取id大于它的行，为null表示从头开始
+	 */
+	private void fetchByKeyset(JdbcUtil jdbc, IndexPipeline<String[]> pipeline, Long fromId) throws SQLException, InterruptedException
+	{
+		String select = "select " + selectColumns() + " from blog";
+		String lastId = fromId == null ? null : fromId.toString(); // 上一页最后一行的id
+		long pageRows;
+		do
+		{
+			RowIterator<String[]> iterator;
+			if(lastId == null)
+				iterator = jdbc.iterate(select + " order by id limit " + pageSize, new BlogRowMapper());
+			else
+				iterator = jdbc.iterate(select + " where id > ? order by id limit " + pageSize, new BlogRowMapper(), lastId);
+			pageRows = fetch(iterator, pipeline);
+			if(pageRows > 0) lastId = Long.toString(maxId);
+		}
+		while(pageRows == pageSize);
+	}
+
+	/**
+	 * 读完一个结果集，每行都放入队列，最后关闭结果集
+	 * @return 读取的行数
+	 */
+	private long fetch(RowIterator<String[]> iterator, IndexPipeline<String[]> pipeline) throws SQLException, InterruptedException
+	{
+		try
+		{
+			while(true)
+			{
+				long start = System.nanoTime();
+				String[] row = iterator.nextRow();
+				if(row == null) break;
+				IndexMetrics.READ.update(System.nanoTime() - start);
+				pipeline.put(row);
+			}
+			return iterator.getRowCount();
+		}
+		finally
+		{
+			iterator.close(); // 中途出错时取消查询
+			rows += iterator.getRowCount();
+		}
+	}
+
+	/**
+	 * 查询语句的select部分，设置了修改时间列时加在最后
+	 */
+	private String selectColumns()
+	{
+		String columns = BlogDocumentBuilder.selectColumns();
+		return updateTimeColumn == null ? columns : columns + ", " + updateTimeColumn;
+	}
+
+	/**
+	 * 删除索引中有、但表里已经没有的文章：先把表里所有的id读到一个BitSet里（自增id很密集，五千万个id只要6MB左右），
+	 * 再遍历索引中id字段的所有词逐个检查。要在写入新增的行之后执行，因为期间插入的行既不在索引里也不会被删除
+	 * @return 删除的文档数
+	 */
+	private int deleteRemoved(JdbcUtil jdbc) throws IOException, SQLException
+	{
+		BitSet ids = new BitSet();
+		RowIterator<long[]> iterator = jdbc.iterateStream("select id from blog", new IdRowMapper());
+		try
+		{
+			long[] id;
+			while((id = iterator.nextRow()) != null)
+			{
+				if(id[0] >= 0 && id[0] <= Integer.MAX_VALUE) ids.set((int)id[0]);
+			}
+		}
+		finally
+		{
+			iterator.close();
+		}
+		int deleted = 0;
+		DirectoryReader reader = DirectoryReader.open(indexWriter, true);
+		try
+		{
+			Terms terms = MultiFields.getTerms(reader, "id");
+			if(terms == null) return 0;
+			Bits liveDocs = MultiFields.getLiveDocs(reader);
+			TermsEnum termsEnum = terms.iterator();
+			PostingsEnum postings = null;
+			BytesRef term;
+			while((term = termsEnum.next()) != null)
+			{
+				Long id = parseLong(term.utf8ToString());
+				// 不是整数或者超出范围的id无法判断，保留
+				if(id == null || id < 0 || id > Integer.MAX_VALUE || ids.get(id.intValue())) continue;
+				postings = termsEnum.postings(postings, PostingsEnum.NONE);
+				if(!hasLiveDoc(postings, liveDocs)) continue; // 已经删除、只是还没被合并掉的
+				indexWriter.deleteDocuments(new Term("id", BytesRef.deepCopyOf(term)));
+				deleted++;
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return deleted;
+	}
+
+	private static boolean hasLiveDoc(PostingsEnum postings, Bits liveDocs) throws IOException
+	{
+		int doc;
+		while((doc = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS)
+		{
+			if(liveDocs == null || liveDocs.get(doc)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * 把读到的最大id和修改时间写入commitData，保留其它的key
+	 * @param reset 是否清除原来的检查点，全量重建时表可能是空的，不能沿用旧的
+	 */
+	private void saveCheckpoint(boolean reset)
+	{
+		Map<String, String> commitData = new HashMap<String, String>(indexWriter.getCommitData());
+		if(reset)
+		{
+			commitData.remove(CHECKPOINT_ID);
+			commitData.remove(CHECKPOINT_UPDATE_TIME);
+		}
+		if(maxId != Long.MIN_VALUE) commitData.put(CHECKPOINT_ID, Long.toString(maxId));
+		if(maxUpdateTime != Long.MIN_VALUE) commitData.put(CHECKPOINT_UPDATE_TIME, Long.toString(maxUpdateTime));
+		indexWriter.setCommitData(commitData);
+	}
+
+	private static Long parseLong(String value)
+	{
+		if(value == null) return null;
+		try
+		{
+			return Long.valueOf(value);
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * 把blog表的一行读成String数组，有修改时间的列时最后加上修改时间的毫秒数，列的序号在执行查询后查找一次，同时记录最大的id和修改时间<br>
+	 * 每行都是新的数组，因为要放进队列交给其它线程
+	 */
+	private class BlogRowMapper implements RowMapper<String[]>
+	{
+		private final int[] columns = new int[BlogDocumentBuilder.COLUMNS.length];
+		private int updateTimeColumnIndex;
+
+		@Override
+		public void init(ResultSet rs) throws SQLException
+		{
+			for(int i=0; i<columns.length; i++)
+				columns[i] = rs.findColumn(BlogDocumentBuilder.COLUMNS[i]);
+			if(updateTimeColumn != null) updateTimeColumnIndex = rs.findColumn(updateTimeColumn);
+		}
+
+		@Override
+		public String[] mapRow(ResultSet rs) throws SQLException
+		{
+			String[] row = new String[updateTimeColumn == null ? columns.length : columns.length + 1];
+			for(int i=0; i<columns.length; i++)
+				row[i] = rs.getString(columns[i]);
+			maxId = Math.max(maxId, rs.getLong(columns[0]));
+			if(updateTimeColumn != null)
+			{
+				Timestamp updateTime = rs.getTimestamp(updateTimeColumnIndex);
+				if(updateTime != null)
+				{
+					row[BlogDocumentBuilder.UPDATE_TIME] = Long.toString(updateTime.getTime());
+					maxUpdateTime = Math.max(maxUpdateTime, updateTime.getTime());
+				}
+			}
+			return row;
+		}
+	}
+
+	/**
+	 * 只读取id，每行复用同一个数组，遍历几千万个id也不会产生大量的临时对象
+	 */
+	private static class IdRowMapper implements RowMapper<long[]>
+	{
+		private final long[] id = new long[1];
+
+		@Override
+		public void init(ResultSet rs)
+		{
+		}
+
+		@Override
+		public long[] mapRow(ResultSet rs) throws SQLException
+		{
+			id[0] = rs.getLong(1);
+			return id;
+		}
+	}
+
+	/**
+	 * 一行数据的字符数，用来统计每秒索引了多少内容
+	 */
+	private static long length(String[] row)
+	{
+		long length = 0;
+		for(String value : row)
+		{
+			if(value != null) length += value.length();
+		}
+		return length;
+	}
+
+	/**
+	 * 创建文档后写入索引
+	 */
+	private class Worker implements IndexPipeline.Worker<String[]>
+	{
+		private final IndexWriter indexWriter;
+		private final boolean update; // 是否是增量模式，增量模式下按id替换已有的文档
+		private final BlogDocumentBuilder documentBuilder = new BlogDocumentBuilder(indexOffsets, contentStore); // 每个线程一个，重复使用文档
+
+		public Worker(IndexWriter indexWriter, boolean update)
+		{
+			this.indexWriter = indexWriter;
+			this.update = update;
+		}
+
+		@Override
+		public boolean process(String[] row) throws IOException
+		{
+			Document document = documentBuilder.build(row);
+			try
+			{
+				long start = System.nanoTime();
+				if(update)
+					indexWriter.updateDocument(new Term("id", row[0]), document);
+				else
+					indexWriter.addDocument(document);
+				IndexMetrics.ADD_DOCUMENT.update(System.nanoTime() - start);
+				IndexMetrics.DOCS.inc();
+				IndexMetrics.BYTES.inc(length(row));
+				return true;
+			}
+			catch (IllegalArgumentException e)
+			{
+				// 单个文档的问题（比如超长的词）不影响IndexWriter，跳过即可
+				log.error("索引数据失败，id：" + row[0], e);
+				return false;
+			}
+		}
+	}
+}
@@ -0,0 +1,415 @@
+package com.test.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 存放在索引之外的压缩正文：每篇正文压缩成一条记录追加到文件末尾，记录的位置作为DocValues字段
+ * {@link #POINTER_FIELD}写入文档，正文本身不再放进Lucene的存储字段<br>
+ * 这样索引只剩下搜索和排序需要的数据，搜索时只有需要显示正文或摘要的结果才读取一条记录并解压<br>
+ * 记录格式：原文字节数（int）、压缩后字节数（int）、Deflater压缩的UTF-8字节<br>
+ * 文件分代：第0代就是path本身，第N代是path.N，位置的高位是代数、低40位是文件内的偏移，所以旧索引里的位置始终指向旧文件。
+ * 全量重建前调用{@link #newGeneration()}换一个新文件写，重建过程中和重建失败后，已经打开的搜索仍然读旧文件；
+ * {@link #commit(IndexWriter)}把当前的代数和索引一起提交，全量重建提交成功之后才删除更旧的文件<br>
+ * 同一代的文件只追加，更新和删除文档留下的旧记录在下次全量重建时随旧文件一起清理；
+ * 写入直接进入文件，{@link #commit(IndexWriter)}在索引准备好提交之后、真正提交之前刷盘，保证断电后索引引用的记录都在<br>
+ * 线程安全，写入和读取可以同时进行，建索引和搜索可以共用一个实例，用完后需要调用close()
+ * @author liuxianan
+ */
+public class ContentStore implements Closeable
+{
+	private static final Logger log = LoggerFactory.getLogger(ContentStore.class);
+
+	/** 存放在这里的字段 */
+	public static final String CONTENT_FIELD = "content";
+	/** 记录正文位置的DocValues字段 */
+	public static final String POINTER_FIELD = "contentPointer";
+	/** 索引的commitData里记录当前代数的key */
+	public static final String GENERATION_KEY = "contentStore.generation";
+	private static final int HEADER_SIZE = 8;
+	private static final int OFFSET_BITS = 40; // 每个文件最大1TB
+	private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+	private final String path;
+	private final int level;
+	private final ConcurrentHashMap<Long, FileChannel> channels = new ConcurrentHashMap<Long, FileChannel>(); // 已经打开的各代文件
+	private volatile long generation; // 正在写入的代数
+	private long committedGeneration; // 最后一次提交到索引里的代数
+	private boolean rebuilding = false; // 当前这一代是否是全量重建新开的，还没有提交
+	// 每个线程一个压缩器和解压器重复使用，它们占用的本地内存在close()时统一用end()释放
+	private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>();
+	private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>();
+	private final Queue<Deflater> allDeflaters = new ConcurrentLinkedQueue<Deflater>();
+	private final Queue<Inflater> allInflaters = new ConcurrentLinkedQueue<Inflater>();
+
+	/**
+	 * 打开文件，压缩级别为Deflater.BEST_SPEED
+	 * @param path 文件路径，一般放在索引目录下，如E:\lucene\content.store
+	 * @param generation 索引最后一次提交时的代数，见{@link #committedGeneration(String)}，之后的增量更新继续写这一代
+	 */
+	public ContentStore(String path, long generation) throws IOException
+	{
+		this(path, generation, Deflater.BEST_SPEED);
+	}
+
+	/**
+	 * @param level 压缩级别，1（最快）到9（最小）
+	 */
+	public ContentStore(String path, long generation, int level) throws IOException
+	{
+		this.path = path;
+		this.level = level;
+		this.generation = generation;
+		this.committedGeneration = generation;
+		File parent = new File(path).getAbsoluteFile().getParentFile();
+		if(parent != null) parent.mkdirs();
+		channel(generation, true);
+	}
+
+	/**
+	 * 读取索引最后一次提交时记录的代数，没有索引或者没有记录（使用分代之前建的索引）时为0
+	 * @param indexPath 索引所在的目录
+	 */
+	public static long committedGeneration(String indexPath) throws IOException
+	{
+		Directory directory = FSDirectory.open(FileSystems.getDefault().getPath(indexPath));
+		try
+		{
+			if(!DirectoryReader.indexExists(directory)) return 0;
+			String value = SegmentInfos.readLatestCommit(directory).getUserData().get(GENERATION_KEY);
+			return value == null ? 0 : Long.parseLong(value);
+		}
+		finally
+		{
+			directory.close();
+		}
+	}
+
+	/**
+	 * 压缩并追加一条记录
+	 * @return 记录的位置，写入文档的POINTER_FIELD字段
+	 */
+	public long write(String content) throws IOException
+	{
+		byte[] raw = content.getBytes(StandardCharsets.UTF_8);
+		Deflater deflater = deflaters.get();
+		if(deflater == null)
+		{
+			deflater = new Deflater(level);
+			deflaters.set(deflater);
+			allDeflaters.add(deflater);
+		}
+		deflater.reset();
+		deflater.setInput(raw);
+		deflater.finish();
+		byte[] buffer = new byte[HEADER_SIZE + raw.length / 2 + 64];
+		int len = HEADER_SIZE;
+		while(!deflater.finished())
+		{
+			if(len == buffer.length)
+			{
+				byte[] bigger = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, bigger, 0, len);
+				buffer = bigger;
+			}
+			len += deflater.deflate(buffer, len, buffer.length - len);
+		}
+		ByteBuffer record = ByteBuffer.wrap(buffer, 0, len);
+		record.putInt(0, raw.length);
+		record.putInt(4, len - HEADER_SIZE);
+		// 在锁里确定位置并写完，多个线程的记录不会交错
+		synchronized(this)
+		{
+			FileChannel channel = channel(generation, true);
+			long offset = channel.size();
+			if(offset + len > OFFSET_MASK) throw new IOException("内容存储的文件超过1TB：" + fileName(generation));
+			while(record.hasRemaining())
+				channel.write(record, offset + record.position());
+			return generation << OFFSET_BITS | offset;
+		}
+	}
+
+	/**
+	 * 读取并解压一条记录
+	 * @param pointer write()返回的位置
+	 * @return 正文，位置无效或者记录损坏时返回null
+	 */
+	public String read(long pointer) throws IOException
+	{
+		if(pointer < 0) return null;
+		long offset = pointer & OFFSET_MASK;
+		FileChannel channel = channel(pointer >>> OFFSET_BITS, false);
+		if(channel == null)
+		{
+			log.error("内容存储的文件不存在：{}", fileName(pointer >>> OFFSET_BITS));
+			return null;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		if(!readFully(channel, header, offset)) return null;
+		int rawLength = header.getInt(0);
+		int length = header.getInt(4);
+		if(rawLength < 0 || length < 0 || offset + HEADER_SIZE + length > channel.size())
+		{
+			log.error("内容存储的记录无效，位置：{}，文件：{}", offset, fileName(pointer >>> OFFSET_BITS));
+			return null;
+		}
+		ByteBuffer compressed = ByteBuffer.allocate(length);
+		if(!readFully(channel, compressed, offset + HEADER_SIZE)) return null;
+		Inflater inflater = inflaters.get();
+		if(inflater == null)
+		{
+			inflater = new Inflater();
+			inflaters.set(inflater);
+			allInflaters.add(inflater);
+		}
+		inflater.reset();
+		inflater.setInput(compressed.array(), 0, length);
+		byte[] raw = new byte[rawLength];
+		try
+		{
+			int len = 0;
+			while(len < rawLength && !inflater.finished())
+			{
+				int n = inflater.inflate(raw, len, rawLength - len);
+				if(n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+				len += n;
+			}
+			if(len != rawLength)
+			{
+				log.error("内容存储的记录不完整，位置：{}，文件：{}", offset, fileName(pointer >>> OFFSET_BITS));
+				return null;
+			}
+		}
+		catch (DataFormatException e)
+		{
+			log.error("内容存储的记录损坏，位置：" + offset + "，文件：" + fileName(pointer >>> OFFSET_BITS), e);
+			return null;
+		}
+		return new String(raw, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * 按文档号读取正文，文档号是IndexSearcher里的全局编号
+	 * @return 正文，文档没有POINTER_FIELD字段时返回null
+	 */
+	public String read(IndexSearcher searcher, int doc) throws IOException
+	{
+		LeafReaderContext leaf = searcher.getIndexReader().leaves().get(ReaderUtil.subIndex(doc, searcher.getIndexReader().leaves()));
+		NumericDocValues pointers = leaf.reader().getNumericDocValues(POINTER_FIELD);
+		if(pointers == null) return null;
+		int leafDoc = doc - leaf.docBase;
+		if(!leaf.reader().getDocsWithField(POINTER_FIELD).get(leafDoc)) return null;
+		return read(pointers.get(leafDoc));
+	}
+
+	/**
+	 * 从指定位置读满缓冲区
+	 * @return 文件不够长时返回false
+	 */
+	private boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{
+		while(buffer.hasRemaining())
+		{
+			int n = channel.read(buffer, position + buffer.position());
+			if(n < 0)
+			{
+				log.error("内容存储的记录超出文件末尾，位置：{}，文件：{}", position, path);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 某一代的文件名，第0代是path本身，兼容分代之前的文件
+	 */
+	private String fileName(long generation)
+	{
+		return generation == 0 ? path : path + "." + generation;
+	}
+
+	/**
+	 * 取得某一代文件的通道，没有打开过时打开
+	 * @param create 文件不存在时是否创建，否则返回null
+	 */
+	private FileChannel channel(long generation, boolean create) throws IOException
+	{
+		FileChannel channel = channels.get(generation);
+		if(channel != null) return channel;
+		synchronized(this)
+		{
+			channel = channels.get(generation);
+			if(channel != null) return channel;
+			File file = new File(fileName(generation));
+			if(!create && !file.exists()) return null;
+			channel = new RandomAccessFile(file, "rw").getChannel();
+			channels.put(generation, channel);
+			return channel;
+		}
+	}
+
+	/**
+	 * 全量重建前调用：之后的记录写到一个新文件里，已经提交的索引引用的旧文件不受影响，
+	 * 重建失败（IndexWriter回滚）时搜索仍然能读到旧的正文；新文件在{@link #commit(IndexWriter)}成功后才成为当前这一代
+	 * @return 新的代数
+	 */
+	public synchronized long newGeneration() throws IOException
+	{
+		// 跳过已经存在的文件，比如上次重建失败留下的，里面可能有增量更新写入的记录
+		long next = generation + 1;
+		while(new File(fileName(next)).exists())
+			next++;
+		generation = next;
+		rebuilding = true;
+		channel(next, true);
+		return next;
+	}
+
+	/**
+	 * 把当前的代数写入commitData，准备提交后把正文刷到磁盘，然后提交索引；
+	 * 全量重建的这一代提交成功后，删除除了这一代和上一次提交的那一代（可能还有没刷新的搜索在读）之外的所有文件<br>
+	 * 先prepareCommit()再刷盘：之后再写入的文档不在这次提交里，这次提交的文档引用的记录一定都已经刷盘了；
+	 * 反过来的话，刷盘之后、提交之前写入的文档会被提交，它的记录却可能还没有刷盘<br>
+	 * 刷盘失败时回滚并关闭IndexWriter，因为准备好的提交没法撤销，下次提交会把它连同没刷盘的记录一起提交
+	 */
+	public void commit(IndexWriter indexWriter) throws IOException
+	{
+		long generation;
+		synchronized(this)
+		{
+			generation = this.generation;
+		}
+		Map<String, String> commitData = new HashMap<String, String>(indexWriter.getCommitData());
+		commitData.put(GENERATION_KEY, Long.toString(generation));
+		indexWriter.setCommitData(commitData);
+		long start = System.nanoTime();
+		indexWriter.prepareCommit();
+		try
+		{
+			sync();
+		}
+		catch (IOException e)
+		{
+			try
+			{
+				indexWriter.rollback();
+			}
+			catch (IOException suppressed)
+			{
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		}
+		indexWriter.commit();
+		IndexMetrics.COMMIT.update(System.nanoTime() - start);
+		synchronized(this)
+		{
+			long previous = committedGeneration;
+			committedGeneration = generation;
+			if(!rebuilding || generation != this.generation) return;
+			rebuilding = false;
+			deleteGenerations(generation, previous);
+		}
+	}
+
+	/**
+	 * 删除除了keep之外的所有代的文件
+	 */
+	private void deleteGenerations(long... keep)
+	{
+		File[] files = new File(path).getAbsoluteFile().getParentFile().listFiles();
+		if(files == null) return;
+		String name = new File(path).getName();
+		for(File file : files)
+		{
+			long generation;
+			if(file.getName().equals(name))
+				generation = 0;
+			else if(file.getName().startsWith(name + ".") && file.getName().substring(name.length() + 1).matches("\\d+"))
+				generation = Long.parseLong(file.getName().substring(name.length() + 1));
+			else
+				continue;
+			boolean kept = false;
+			for(long k : keep)
+				kept |= k == generation;
+			if(kept) continue;
+			try
+			{
+				FileChannel channel = channels.remove(generation);
+				if(channel != null) channel.close();
+			}
+			catch (IOException e)
+			{
+				log.error("关闭内容存储的文件失败：" + file, e);
+			}
+			if(file.delete())
+				log.info("已删除旧的内容存储文件：{}", file);
+			else
+				log.warn("删除旧的内容存储文件失败：{}", file);
+		}
+	}
+
+	/**
+	 * 把写入的记录刷到磁盘，{@link #commit(IndexWriter)}提交索引时会调用
+	 */
+	public void sync() throws IOException
+	{
+		channel(generation, true).force(false);
+	}
+
+	/**
+	 * 当前这一代文件的字节数
+	 */
+	public long size() throws IOException
+	{
+		return channel(generation, true).size();
+	}
+
+	/**
+	 * 当前写入的代数
+	 */
+	public long getGeneration()
+	{
+		return generation;
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		IOUtils.close(channels.values());
+		channels.clear();
+		Deflater deflater;
+		while((deflater = allDeflaters.poll()) != null)
+			deflater.end();
+		Inflater inflater;
+		while((inflater = allInflaters.poll()) != null)
+			inflater.end();
+	}
+}
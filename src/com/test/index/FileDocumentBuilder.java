@@ -0,0 +1,213 @@
+package com.test.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+
+import org.apache.lucene.document.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.test.util.FileUtil;
+
+/**
+ * 根据磁盘上的文件创建文件搜索用的Lucene文档，文件通过NIO读取，默认自动探测编码<br>
+ * 默认把整个文件读成字符串，分词并完整存储content；
+ * 设置了maxStoredChars之后改为流式读取：content直接以Reader的形式交给分词器，
+ * 只存储前maxStoredChars个字符用于显示摘要，这样不管文件多大每个文件占用的内存都是固定的<br>
+ * 字段按{@link #SCHEMA}定义，每个实例只创建一次文档和各个字段，之后每个文件只更新字段的值，返回的文档在下一次build()之前写入索引即可<br>
+ * 每个实例同一时刻只能处理一个文件，多线程时每个线程用{@link #FileDocumentBuilder(FileDocumentBuilder)}复制一个
+ * @author liuxianan
+ */
+public class FileDocumentBuilder
+{
+	private static final Logger log = LoggerFactory.getLogger(FileDocumentBuilder.class);
+
+	/**
+	 * 文件索引的结构：content、fileName分词；filePath不分词，作为文件的唯一标识，增量索引时按它来更新和删除；
+	 * updateTime是数值，可以按时间范围过滤，带DocValues可以按时间排序；fileSize只存储用于显示
+	 */
+	public static final IndexSchema SCHEMA = new IndexSchema()
+			.text("content", true)
+			.text("fileName", true)
+			.keyword("filePath", true, false)
+			.longField("updateTime", true, true)
+			.stored("fileSize");
+	/** 同上，content记录偏移位置，搜索时可以不重新分词直接高亮 */
+	public static final IndexSchema OFFSETS_SCHEMA = SCHEMA.withOffsets("content");
+
+	private String encoding = null; // 文件编码，为null时自动探测
+	private int maxStoredChars = -1; // 存储的content最大长度，小于0表示把整个文件读进内存并完整存储
+	private boolean indexOffsets = false; // content是否记录偏移位置
+	private ContentStore contentStore; // 不为null时content存放在这里，不放进索引的存储字段
+	private Reader reader; // 流式模式下当前正在索引的文件
+	private char[] prefix; // 流式模式下读取存储部分用的缓冲区，重复使用
+	private SchemaDocument document; // 重复使用的文档，第一次build()时创建
+
+	public FileDocumentBuilder()
+	{
+	}
+
+	/**
+	 * 复制另一个实例的配置
+	 */
+	public FileDocumentBuilder(FileDocumentBuilder config)
+	{
+		this.encoding = config.encoding;
+		this.maxStoredChars = config.maxStoredChars;
+		this.indexOffsets = config.indexOffsets;
+		this.contentStore = config.contentStore;
+	}
+
+	/**
+	 * 读取文件并设置好文档各个字段的值，流式模式下文档写入索引之后需要调用{@link #release()}
+	 * @param file 需要索引的文件
+	 * @return 文档，每次返回的都是同一个对象，文件读取失败时返回null
+	 * @throws IOException 写入ContentStore失败
+	 */
+	public Document build(File file) throws IOException
+	{
+		if(document == null) document = new SchemaDocument(createSchema());
+		if(maxStoredChars < 0)
+		{
+			String content = FileUtil.readFileNio(file.getAbsolutePath(), encoding);
+			if(content == null) return null; // 读取失败的原因FileUtil里面已经记录过了
+			document.set("content", content);
+			storeContent(content);
+		}
+		else if(!setContentReader(file))
+			return null;
+		document.set("fileName", file.getName());
+		document.set("filePath", file.getAbsolutePath());
+		document.set("updateTime", file.lastModified());
+		document.set("fileSize", file.length());
+		return document.getDocument();
+	}
+
+	/**
+	 * 根据配置确定文档结构：是否记录偏移位置，content存储在索引里还是ContentStore里
+	 */
+	private IndexSchema createSchema()
+	{
+		IndexSchema schema = indexOffsets ? OFFSETS_SCHEMA : SCHEMA;
+		if(contentStore != null) schema = schema.withoutStored("content").docValues(ContentStore.POINTER_FIELD);
+		return schema;
+	}
+
+	/**
+	 * 使用ContentStore时把需要存储的content写进去，文档里只记录位置
+	 */
+	private void storeContent(String content) throws IOException
+	{
+		if(contentStore == null) return;
+		if(content == null)
+			document.remove(ContentStore.POINTER_FIELD);
+		else
+			document.set(ContentStore.POINTER_FIELD, contentStore.write(content));
+	}
+
+	/**
+	 * 流式模式：先读出前maxStoredChars个字符用于存储，再退回到流中，整个流交给分词器
+	 */
+	private boolean setContentReader(File file) throws IOException
+	{
+		release();
+		Reader in = FileUtil.openNioReader(file.getAbsolutePath(), encoding);
+		if(in == null) return false;
+		if(maxStoredChars == 0)
+		{
+			reader = in;
+			document.setReader("content", reader, null);
+			storeContent(null);
+			return true;
+		}
+		PushbackReader pushback = new PushbackReader(in, maxStoredChars);
+		reader = pushback;
+		int len;
+		try
+		{
+			if(prefix == null) prefix = new char[maxStoredChars];
+			len = FileUtil.read(pushback, prefix, maxStoredChars);
+			pushback.unread(prefix, 0, len);
+		}
+		catch (IOException e)
+		{
+			log.error("读取文件失败：" + file.getAbsolutePath(), e);
+			release();
+			return false;
+		}
+		String stored = new String(prefix, 0, len);
+		document.setReader("content", pushback, stored); // 整个流分词，只存储开头部分
+		try
+		{
+			storeContent(stored);
+		}
+		catch (IOException e)
+		{
+			release();
+			throw e;
+		}
+		return true;
+	}
+
+	/**
+	 * 关闭流式模式下当前文件的流，分词器读完后一般已经关闭了，这里保证出错时也不会泄漏
+	 */
+	public void release()
+	{
+		if(reader == null) return;
+		try
+		{
+			reader.close();
+		}
+		catch (IOException e)
+		{
+			log.error("尝试关闭流时失败：", e);
+		}
+		reader = null;
+	}
+
+	/**
+	 * 设置读取文件使用的编码，默认为null，即根据文件内容自动探测是UTF-8、GBK还是带BOM的UTF-16
+	 */
+	public void setEncoding(String encoding)
+	{
+		this.encoding = encoding;
+	}
+
+	/**
+	 * 设置存储的content的最大字符数，大于等于0时改为流式读取；小于0（默认）表示读取并存储整个文件
+	 */
+	public void setMaxStoredChars(int maxStoredChars)
+	{
+		this.maxStoredChars = maxStoredChars;
+		prefix = null;
+	}
+
+	/**
+	 * 设置content是否记录偏移位置，配合{@link com.test.search.SearchService#setPostingsHighlight(boolean)}使用，
+	 * 高亮时不再重新分词，长文件的搜索会快很多，索引会变大一些；修改后需要全量重建索引
+	 */
+	public void setIndexOffsets(boolean indexOffsets)
+	{
+		this.indexOffsets = indexOffsets;
+		document = null;
+	}
+
+	/**
+	 * 设置存放content的ContentStore，设置后content不再放进索引的存储字段，而是压缩后存到ContentStore里，
+	 * 文档只记录位置，搜索端需要用{@link com.test.search.SearchService#setContentStore(ContentStore)}读取；
+	 * 为null（默认）时存放在索引里。修改后需要全量重建索引
+	 */
+	public void setContentStore(ContentStore contentStore)
+	{
+		this.contentStore = contentStore;
+		document = null;
+	}
+
+	public ContentStore getContentStore()
+	{
+		return contentStore;
+	}
+}
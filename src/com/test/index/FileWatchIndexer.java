@@ -0,0 +1,394 @@
+package com.test.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.SearcherManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 常驻的准实时文件索引器：<br>
+ * 用WatchService监听扫描目录及其所有子目录，把一段时间内的新建、修改、删除事件合并成一批写入IndexWriter，
+ * 再由SearcherManager定时从IndexWriter重新打开（NRT），使新文件在几秒内就能被搜到，不用等下次全量建索引<br>
+ * 使用方法：start()之后通过getSearcherManager()获取搜索用的IndexSearcher，用完后调用close()
+ * @author liuxianan
+ */
+public class FileWatchIndexer
+{
+	private static final Logger log = LoggerFactory.getLogger(FileWatchIndexer.class);
+	private static final long CLOSE_TIMEOUT_SECONDS = 60; // close()时等待监听线程和定时任务结束的时间
+
+	private final IndexWriter indexWriter;
+	private final Path root;
+	private FileDocumentBuilder builder = new FileDocumentBuilder();
+	private final Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+	private long batchMillis = 500; // 合并事件的时间窗口
+	private long refreshMillis = 1000; // 搜索端重新打开的间隔
+	private long commitMillis = 60000; // 提交索引的间隔
+	private WatchService watchService;
+	private SearcherManager searcherManager;
+	private ScheduledExecutorService scheduler;
+	private Thread watchThread;
+	private volatile boolean running = false;
+
+	/**
+	 * @param indexWriter 写索引用的IndexWriter，close()时会一起提交并关闭
+	 * @param scanPath 需要监听的路径
+	 */
+	public FileWatchIndexer(IndexWriter indexWriter, String scanPath)
+	{
+		this.indexWriter = indexWriter;
+		this.root = Paths.get(scanPath).toAbsolutePath();
+	}
+
+	/**
+	 * 开始监听，会先注册所有子目录，然后启动监听线程和定时刷新、提交的任务
+	 */
+	public synchronized void start() throws IOException
+	{
+		if(running) return;
+		watchService = FileSystems.getDefault().newWatchService();
+		registerAll(root);
+		searcherManager = new SearcherManager(indexWriter, true, null);
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		scheduler.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					searcherManager.maybeRefresh();
+				}
+				catch (Exception e)
+				{
+					log.error("刷新SearcherManager失败：", e);
+				}
+			}
+		}, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+		scheduler.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				commit();
+			}
+		}, commitMillis, commitMillis, TimeUnit.MILLISECONDS);
+		running = true;
+		watchThread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				watch();
+			}
+		}, "file-watch-indexer");
+		watchThread.setDaemon(true);
+		watchThread.start();
+		log.info("开始监听目录：{}", root);
+	}
+
+	/**
+	 * 停止监听，提交未提交的修改并关闭IndexWriter
+	 */
+	public synchronized void close() throws IOException
+	{
+		if(!running) return;
+		running = false;
+		watchService.close();
+		try
+		{
+			// 监听线程可能正在重新同步整个目录，等太久就中断它，中断后最多再等一轮
+			watchThread.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+			if(watchThread.isAlive())
+			{
+				log.warn("等待监听线程结束超时，中断它");
+				watchThread.interrupt();
+				watchThread.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+				if(watchThread.isAlive()) log.error("监听线程没有结束，继续关闭");
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		// 不能中断正在执行的刷新和提交，Lucene的IO被中断会抛出ThreadInterruptedException，还会关掉NIOFSDirectory的文件通道
+		scheduler.shutdown();
+		try
+		{
+			if(!scheduler.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+				log.warn("等待刷新和提交任务结束超时");
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		searcherManager.close();
+		if(builder.getContentStore() != null) builder.getContentStore().commit(indexWriter);
+		indexWriter.close();
+		log.info("已停止监听目录：{}", root);
+	}
+
+	/**
+	 * 获取搜索用的SearcherManager，每次搜索前acquire()，搜索完release()
+	 */
+	public SearcherManager getSearcherManager()
+	{
+		return searcherManager;
+	}
+
+	/**
+	 * 设置创建文档的配置，比如流式读取、文件编码等，需在start()之前调用
+	 */
+	public void setDocumentBuilder(FileDocumentBuilder documentBuilder)
+	{
+		this.builder = new FileDocumentBuilder(documentBuilder);
+	}
+
+	/**
+	 * 设置合并事件的时间窗口，需在start()之前调用
+	 */
+	public void setBatchMillis(long batchMillis)
+	{
+		this.batchMillis = batchMillis;
+	}
+
+	/**
+	 * 设置搜索端重新打开的间隔，也就是修改最多多久之后能被搜到，需在start()之前调用
+	 */
+	public void setRefreshMillis(long refreshMillis)
+	{
+		this.refreshMillis = refreshMillis;
+	}
+
+	/**
+	 * 设置提交索引的间隔，需在start()之前调用
+	 */
+	public void setCommitMillis(long commitMillis)
+	{
+		this.commitMillis = commitMillis;
+	}
+
+	/**
+	 * 监听线程，把事件按路径合并，每隔batchMillis写一次索引
+	 */
+	private void watch()
+	{
+		Map<Path, WatchEvent.Kind<?>> pending = new LinkedHashMap<Path, WatchEvent.Kind<?>>();
+		boolean overflow = false;
+		long batchStart = 0;
+		while(running)
+		{
+			try
+			{
+				long wait = pending.isEmpty() && !overflow ? batchMillis : Math.max(1, batchStart + batchMillis - System.currentTimeMillis());
+				WatchKey key = watchService.poll(wait, TimeUnit.MILLISECONDS);
+				if(key != null)
+				{
+					if(pending.isEmpty() && !overflow) batchStart = System.currentTimeMillis();
+					overflow |= collect(key, pending);
+				}
+				if((overflow || !pending.isEmpty()) && System.currentTimeMillis() - batchStart >= batchMillis)
+				{
+					if(overflow)
+						resync();
+					else
+						apply(pending);
+					pending.clear();
+					overflow = false;
+				}
+			}
+			catch (ClosedWatchServiceException e)
+			{
+				break;
+			}
+			catch (InterruptedException e)
+			{
+				break;
+			}
+			catch (Exception e)
+			{
+				if(indexWriter.getTragicException() != null)
+				{
+					// IndexWriter已经不能再用了，重试也没有意义
+					log.error("IndexWriter出现致命错误，停止监听：", e);
+					break;
+				}
+				if(!running || Thread.currentThread().isInterrupted()) break; // close()时被中断
+				// 这一批可能只写了一部分，比如新建的目录在处理前又被删了，剩下的变化不知道有没有丢，下一轮重新同步整个目录
+				log.error("处理文件变化时出错，稍后重新同步目录：", e);
+				pending.clear();
+				overflow = true;
+				batchStart = System.currentTimeMillis();
+			}
+		}
+	}
+
+	/**
+	 * 收集一个WatchKey上的事件，同一个路径只保留一条，但新建事件优先（需要注册新目录）
+	 * @return 是否有事件丢失，需要重新同步整个目录
+	 */
+	private boolean collect(WatchKey key, Map<Path, WatchEvent.Kind<?>> pending)
+	{
+		boolean overflow = false;
+		Path dir = keys.get(key);
+		for(WatchEvent<?> event : key.pollEvents())
+		{
+			WatchEvent.Kind<?> kind = event.kind();
+			if(kind == StandardWatchEventKinds.OVERFLOW)
+			{
+				overflow = true;
+				continue;
+			}
+			if(dir == null) continue;
+			Path path = dir.resolve((Path)event.context());
+			if(pending.get(path) != StandardWatchEventKinds.ENTRY_CREATE)
+				pending.put(path, kind);
+		}
+		if(!key.reset()) keys.remove(key); // 目录已经被删除
+		return overflow;
+	}
+
+	/**
+	 * 把一批变化写入索引：存在的文件更新，新建的目录注册监听并索引其中的文件，不存在的路径删除对应的文档
+	 */
+	private void apply(Map<Path, WatchEvent.Kind<?>> pending) throws IOException
+	{
+		int updated = 0, deleted = 0;
+		for(Map.Entry<Path, WatchEvent.Kind<?>> entry : pending.entrySet())
+		{
+			Path path = entry.getKey();
+			if(Files.isDirectory(path))
+			{
+				if(entry.getValue() == StandardWatchEventKinds.ENTRY_CREATE)
+				{
+					// 注册之前目录里可能已经有文件了，所以注册完要把整个目录索引一遍
+					registerAll(path);
+					updated += indexTree(path);
+				}
+			}
+			else if(Files.isRegularFile(path))
+			{
+				if(indexFile(path.toFile())) updated++;
+			}
+			else
+			{
+				// 不知道删掉的是文件还是目录，两种都删
+				String filePath = path.toString();
+				indexWriter.deleteDocuments(new Term("filePath", filePath));
+				indexWriter.deleteDocuments(new PrefixQuery(new Term("filePath", filePath + File.separator)));
+				deleted++;
+			}
+		}
+		log.info("目录变化已写入索引，更新{}个文件，删除{}个路径", updated, deleted);
+	}
+
+	/**
+	 * 监听事件丢失时，用增量索引把整个目录重新同步一遍
+	 */
+	private void resync() throws IOException, InterruptedException
+	{
+		log.info("文件变化事件过多已丢失，重新同步目录：{}", root);
+		registerAll(root);
+		ParallelFileIndexer indexer = new ParallelFileIndexer(indexWriter, Runtime.getRuntime().availableProcessors(), 1000);
+		indexer.setDocumentBuilder(builder);
+		indexer.update(root.toString());
+	}
+
+	private boolean indexFile(File file) throws IOException
+	{
+		long start = System.nanoTime();
+		Document document = builder.build(file);
+		IndexMetrics.READ.update(System.nanoTime() - start);
+		if(document == null) return false;
+		try
+		{
+			start = System.nanoTime();
+			indexWriter.updateDocument(new Term("filePath", file.getAbsolutePath()), document);
+			IndexMetrics.ADD_DOCUMENT.update(System.nanoTime() - start);
+			IndexMetrics.DOCS.inc();
+			IndexMetrics.BYTES.inc(file.length());
+		}
+		finally
+		{
+			builder.release();
+		}
+		return true;
+	}
+
+	private int indexTree(Path dir) throws IOException
+	{
+		final int[] count = {0};
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>()
+		{
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+			{
+				if(attrs.isRegularFile() && indexFile(file.toFile())) count[0]++;
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return count[0];
+	}
+
+	/**
+	 * 注册某个目录及其所有子目录
+	 */
+	private void registerAll(Path start) throws IOException
+	{
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>()
+		{
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException
+			{
+				WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				keys.put(key, dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * 提交索引，没有修改时不提交；使用ContentStore时先把正文刷到磁盘，保证提交的文档引用的记录都在
+	 */
+	private void commit()
+	{
+		try
+		{
+			if(!indexWriter.hasUncommittedChanges()) return;
+			ContentStore contentStore = builder.getContentStore();
+			if(contentStore != null)
+				contentStore.commit(indexWriter);
+			else
+				IndexMetrics.commit(indexWriter);
+		}
+		catch (Exception e)
+		{
+			log.error("提交索引失败：", e);
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package com.test.index;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexWriter;
+
+import com.test.metrics.Counter;
+import com.test.metrics.Metrics;
+import com.test.metrics.Timer;
+
+/**
+ * 建索引各个阶段的指标，JMX里和日志里的名字都以index.开头：<br>
+ * discover：遍历目录找出要索引的文件，每次建索引一次，队列满时遍历会等待，所以包含等待的时间；
+ * read：读取一个文件的内容或者从数据库取一行，流式读取的文件大部分内容是在addDocument时读的；
+ * analyze：分词，每16个字段抽样计时一次（见TimingAnalyzer）；addDocument：把一个文档加入IndexWriter（包括分词）；
+ * commit：提交；merge：后台合并一次段<br>
+ * docs/bytes是已写入的文档数和原始内容的大小（文件按字节，数据库按字符），它们的速率就是每秒多少文档、多少字节
+ * @author liuxianan
+ */
+public final class IndexMetrics
+{
+	public static final Timer DISCOVER = Metrics.timer("index.discover");
+	public static final Timer READ = Metrics.timer("index.read");
+	public static final Timer ANALYZE = Metrics.timer("index.analyze");
+	public static final Timer ADD_DOCUMENT = Metrics.timer("index.addDocument");
+	public static final Timer COMMIT = Metrics.timer("index.commit");
+	public static final Timer MERGE = Metrics.timer("index.merge");
+
+	public static final Counter DISCOVERED = Metrics.counter("index.discovered"); // 找到的文件数
+	public static final Counter DOCS = Metrics.counter("index.docs");
+	public static final Counter BYTES = Metrics.counter("index.bytes");
+	public static final Counter TOKENS = Metrics.counter("index.tokens");
+	public static final Counter MERGED_DOCS = Metrics.counter("index.mergedDocs");
+
+	private IndexMetrics()
+	{
+	}
+
+	/**
+	 * 提交并记录耗时
+	 */
+	public static void commit(IndexWriter indexWriter) throws IOException
+	{
+		long start = System.nanoTime();
+		indexWriter.commit();
+		COMMIT.update(System.nanoTime() - start);
+	}
+}
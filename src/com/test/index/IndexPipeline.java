@@ -0,0 +1,218 @@
+package com.test.index;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 有界的生产者/消费者流水线：调用者（可以是多个线程）通过put()放入待处理的数据，
+ * 若干个工作线程从队列中取出并处理，一般是创建Document后写入共享的IndexWriter<br>
+ * 队列满时put()会阻塞，所以内存占用只和队列长度有关；任何一个工作线程出错时整个流水线中止，
+ * put()抛出CancellationException，其余的工作线程处理完手上的数据后退出，队列里剩下的数据丢弃，
+ * 第一个错误在finish()时抛出<br>
+ * 用法：start()，put()若干次，finish()获取处理数量，最后在finally里close()
+ * @author liuxianan
+ */
+public class IndexPipeline<T>
+{
+	private static final Object END = new Object(); // 通知工作线程结束的标记
+	private static final long OFFER_TIMEOUT_MS = 100;
+
+	/**
+	 * 工作线程里处理数据的对象，每个线程一个，可以持有线程内复用的状态
+	 */
+	public interface Worker<T>
+	{
+		/**
+		 * 处理一条数据
+		 * @return 是否处理成功，用于统计数量
+		 * @throws Exception 出错时整个流水线中止
+		 */
+		public boolean process(T item) throws Exception;
+	}
+
+	/**
+	 * 为每个工作线程创建Worker
+	 */
+	public interface WorkerFactory<T>
+	{
+		public Worker<T> newWorker();
+	}
+
+	private final String name;
+	private final int threads;
+	private final BlockingQueue<Object> queue;
+	private final WorkerFactory<T> workerFactory;
+	private final List<Future<Long>> futures = new ArrayList<Future<Long>>();
+	private ExecutorService pool;
+	private volatile boolean aborted = false;
+	private final AtomicReference<Throwable> error = new AtomicReference<Throwable>(); // 第一个出错的工作线程的错误
+
+	/**
+	 * @param name 工作线程的名称前缀
+	 * @param threads 工作线程数
+	 * @param queueSize 队列长度
+	 * @param workerFactory 为每个工作线程创建Worker
+	 */
+	public IndexPipeline(String name, int threads, int queueSize, WorkerFactory<T> workerFactory)
+	{
+		if(threads < 1) throw new IllegalArgumentException("threads必须大于0：" + threads);
+		if(queueSize < 1) throw new IllegalArgumentException("queueSize必须大于0：" + queueSize);
+		this.name = name;
+		this.threads = threads;
+		this.queue = new ArrayBlockingQueue<Object>(queueSize);
+		this.workerFactory = workerFactory;
+	}
+
+	/**
+	 * 启动工作线程
+	 */
+	public void start()
+	{
+		pool = Executors.newFixedThreadPool(threads, new ThreadFactory()
+		{
+			private final AtomicInteger number = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, name + "-" + number.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		for(int i=0; i<threads; i++)
+			futures.add(pool.submit(new WorkerTask(workerFactory.newWorker())));
+	}
+
+	/**
+	 * 放入一条待处理的数据，队列满时阻塞
+	 * @throws CancellationException 有工作线程出错，流水线已经中止
+	 */
+	public void put(T item) throws InterruptedException
+	{
+		if(!offer(item)) throw new CancellationException();
+	}
+
+	/**
+	 * 通知工作线程所有数据都已放入，等待处理完毕；有工作线程出错时等其余的线程退出后抛出错误
+	 * @return 处理成功的数量
+	 * @throws IOException 工作线程处理时出现的错误
+	 */
+	public long finish() throws IOException, InterruptedException
+	{
+		for(int i=0; i<threads; i++)
+		{
+			if(!offer(END)) break;
+		}
+		// 中止后offer()不再放入，没拿到结束标记的线程会一直阻塞在take()上，清空队列后逐个通知它们
+		// 不用shutdownNow()中断，中断正在读写索引文件的线程会关闭NIOFSDirectory的文件通道
+		while(aborted && !isTerminated())
+		{
+			queue.clear();
+			queue.offer(END, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		}
+		long count = 0;
+		try
+		{
+			for(Future<Long> future : futures)
+				count += future.get();
+		}
+		catch (ExecutionException e)
+		{
+			// 出错的线程不一定排在前面，抛出最先出现的错误
+		}
+		Throwable cause = error.get();
+		if(cause == null) return count;
+		if(cause instanceof IOException) throw (IOException)cause;
+		if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+		if(cause instanceof Error) throw (Error)cause;
+		throw new IOException("索引时出错", cause);
+	}
+
+	/**
+	 * 是否所有工作线程都已退出
+	 */
+	private boolean isTerminated()
+	{
+		for(Future<Long> future : futures)
+		{
+			if(!future.isDone()) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 停止所有工作线程，没有调用finish()时正在处理的数据会被丢弃
+	 */
+	public void close()
+	{
+		aborted = true;
+		if(pool != null) pool.shutdownNow();
+	}
+
+	/**
+	 * 放入队列，工作线程异常退出时不再等待
+	 * @return 是否成功放入
+	 */
+	private boolean offer(Object item) throws InterruptedException
+	{
+		while(!aborted)
+		{
+			if(queue.offer(item, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * 工作线程，不断从队列中取数据处理，直到遇到结束标记
+	 */
+	private class WorkerTask implements Callable<Long>
+	{
+		private final Worker<T> worker;
+
+		public WorkerTask(Worker<T> worker)
+		{
+			this.worker = worker;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public Long call() throws Exception
+		{
+			long count = 0;
+			boolean finished = false;
+			try
+			{
+				Object item;
+				while((item = queue.take()) != END && !aborted)
+				{
+					if(worker.process((T)item)) count++;
+				}
+				finished = true;
+				return count;
+			}
+			catch (Throwable e)
+			{
+				error.compareAndSet(null, e);
+				throw e;
+			}
+			finally
+			{
+				if(!finished) aborted = true; // 让放入数据的线程不再等待
+			}
+		}
+	}
+}
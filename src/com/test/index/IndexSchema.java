@@ -0,0 +1,214 @@
+package com.test.index;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SortField;
+
+/**
+ * 声明式的索引结构：每个字段是哪种类型、是否存储、是否带DocValues，创建文档和搜索时都按它来，不用到处写Field类型<br>
+ * 字段类型：<br>
+ * KEYWORD：不分词的字符串，如id、路径、URL，用于精确查找、按它更新和删除，带DocValues时可以排序<br>
+ * TEXT：分词的全文，如标题、正文，只有它会经过分词器，可以同时记录每个词的偏移位置用于快速高亮<br>
+ * LONG：数值，如时间、大小，可以按范围查询，带DocValues时可以排序<br>
+ * STORED：只存储不索引，只用于显示<br>
+ * DOC_VALUES：只有数值DocValues，不索引不存储，用于排序或者按文档号取值，如正文在{@link ContentStore}里的位置<br>
+ * 定义好之后用{@link SchemaDocument}创建可以重复使用的文档，配置完成后是只读的，可以在多个线程之间共享
+ * @author liuxianan
+ */
+public class IndexSchema
+{
+	public enum Type
+	{
+		KEYWORD, TEXT, LONG, STORED, DOC_VALUES
+	}
+
+	/**
+	 * 一个字段的定义
+	 */
+	public static class FieldDef
+	{
+		private final String name;
+		private final Type type;
+		private final boolean stored;
+		private final boolean docValues;
+		private final boolean offsets;
+
+		private FieldDef(String name, Type type, boolean stored, boolean docValues, boolean offsets)
+		{
+			this.name = name;
+			this.type = type;
+			this.stored = stored;
+			this.docValues = docValues;
+			this.offsets = offsets;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public Type getType()
+		{
+			return type;
+		}
+
+		public boolean isStored()
+		{
+			return stored;
+		}
+
+		public boolean hasDocValues()
+		{
+			return docValues;
+		}
+
+		/**
+		 * 是否在倒排表里记录每个词在原文中的偏移位置，只有TEXT字段可以记录
+		 */
+		public boolean hasOffsets()
+		{
+			return offsets;
+		}
+	}
+
+	private final Map<String, FieldDef> fields = new LinkedHashMap<String, FieldDef>();
+
+	/**
+	 * 添加不分词的字符串字段
+	 * @param stored 是否存储
+	 * @param docValues 是否带DocValues，用于排序
+	 */
+	public IndexSchema keyword(String name, boolean stored, boolean docValues)
+	{
+		return add(new FieldDef(name, Type.KEYWORD, stored, docValues, false));
+	}
+
+	/**
+	 * 添加分词的全文字段
+	 * @param stored 是否存储，需要显示或高亮时存储
+	 */
+	public IndexSchema text(String name, boolean stored)
+	{
+		return add(new FieldDef(name, Type.TEXT, stored, false, false));
+	}
+
+	/**
+	 * 添加数值字段，按long索引，可以做范围查询
+	 * @param stored 是否存储
+	 * @param docValues 是否带DocValues，用于排序
+	 */
+	public IndexSchema longField(String name, boolean stored, boolean docValues)
+	{
+		return add(new FieldDef(name, Type.LONG, stored, docValues, false));
+	}
+
+	/**
+	 * 添加只存储不索引的字段，值可以是字符串或数值
+	 */
+	public IndexSchema stored(String name)
+	{
+		return add(new FieldDef(name, Type.STORED, true, false, false));
+	}
+
+	/**
+	 * 复制一份结构，给定的TEXT字段改为记录偏移位置<br>
+	 * 记录偏移位置后高亮不需要重新分词，直接从倒排表里找到匹配的位置，耗时只和匹配的次数有关，和文档长度无关，
+	 * 代价是索引会变大一些，修改后需要全量重建索引
+	 */
+	public IndexSchema withOffsets(String... names)
+	{
+		IndexSchema schema = copy();
+		for(String name : names)
+		{
+			FieldDef field = getField(name);
+			if(field.type != Type.TEXT) throw new IllegalArgumentException("只有TEXT字段可以记录偏移位置：" + name);
+			schema.fields.put(name, new FieldDef(name, field.type, field.stored, field.docValues, true));
+		}
+		return schema;
+	}
+
+	/**
+	 * 添加只有数值DocValues的字段
+	 */
+	public IndexSchema docValues(String name)
+	{
+		return add(new FieldDef(name, Type.DOC_VALUES, false, true, false));
+	}
+
+	/**
+	 * 复制一份结构，给定的字段改为不存储，如正文改为放在{@link ContentStore}里
+	 */
+	public IndexSchema withoutStored(String... names)
+	{
+		IndexSchema schema = copy();
+		for(String name : names)
+		{
+			FieldDef field = getField(name);
+			if(field.type == Type.STORED) throw new IllegalArgumentException("STORED字段必须存储：" + name);
+			schema.fields.put(name, new FieldDef(name, field.type, false, field.docValues, field.offsets));
+		}
+		return schema;
+	}
+
+	private IndexSchema copy()
+	{
+		IndexSchema schema = new IndexSchema();
+		schema.fields.putAll(fields);
+		return schema;
+	}
+
+	private IndexSchema add(FieldDef field)
+	{
+		if(fields.containsKey(field.name)) throw new IllegalArgumentException("字段重复定义：" + field.name);
+		fields.put(field.name, field);
+		return this;
+	}
+
+	/**
+	 * 获取字段的定义
+	 * @throws IllegalArgumentException 没有定义这个字段
+	 */
+	public FieldDef getField(String name)
+	{
+		FieldDef field = fields.get(name);
+		if(field == null) throw new IllegalArgumentException("没有定义字段：" + name);
+		return field;
+	}
+
+	/**
+	 * 所有字段，按定义的顺序
+	 */
+	public Collection<FieldDef> getFields()
+	{
+		return Collections.unmodifiableCollection(fields.values());
+	}
+
+	/**
+	 * 创建按某个字段排序的SortField，字段必须带DocValues
+	 * @param reverse 是否倒序，如按时间从新到旧
+	 */
+	public SortField sortField(String name, boolean reverse)
+	{
+		FieldDef field = getField(name);
+		if(!field.docValues) throw new IllegalArgumentException("字段没有DocValues，不能排序：" + name);
+		SortField.Type type = field.type == Type.KEYWORD ? SortField.Type.STRING : SortField.Type.LONG;
+		return new SortField(name, type, reverse);
+	}
+
+	/**
+	 * 创建数值字段的范围查询，包括两端，如按时间过滤
+	 * @param min 最小值，为null表示不限
+	 * @param max 最大值，为null表示不限
+	 */
+	public Query rangeQuery(String name, Long min, Long max)
+	{
+		FieldDef field = getField(name);
+		if(field.type != Type.LONG) throw new IllegalArgumentException("不是数值字段，不能按范围查询：" + name);
+		return NumericRangeQuery.newLongRange(name, min, max, true, true);
+	}
+}
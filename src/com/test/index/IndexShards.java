@@ -0,0 +1,207 @@
+package com.test.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.test.util.FileUtil;
+
+/**
+ * 分片建索引：全量重建时用K个互不相干的IndexWriter同时写K个目录，每个IndexWriter只被一部分线程使用，
+ * 避免线程很多时都挤在一个IndexWriter的刷新和合并上<br>
+ * 写完之后有两种用法：{@link #mergeInto(IndexWriter, int)}用addIndexes合并进正式的索引，分片目录随后删除；
+ * 或者{@link #commit(int)}后保留各个分片，搜索时用SearchService(String[], ...)当成一个索引搜索，分片目录见{@link #shardPaths(String, int)}<br>
+ * 每个分片都用{@link IndexWriterProfile#bulkLoad(Analyzer, double)}的配置，内存缓冲区按分片数平分；
+ * 分片之间的文档没有重复检查，所以只用于全量重建，增量更新仍然对正式索引的单个IndexWriter进行<br>
+ * 用法：创建，把{@link #getWriters()}交给ParallelFileIndexer或BlogIndexer，索引完成后mergeInto()或commit()，最后在finally里close()
+ * @author liuxianan
+ */
+public class IndexShards implements Closeable
+{
+	private static final Logger log = LoggerFactory.getLogger(IndexShards.class);
+
+	private final String[] paths;
+	private final Directory[] directories;
+	private final IndexWriter[] writers;
+
+	/**
+	 * 清空并打开各个分片
+	 * @param root 分片的上级目录，第i个分片在root/shard-i下
+	 * @param shards 分片数，一般和CPU核数或者写索引的线程数相当，超过8个线程时才有明显效果
+	 * @param analyzer 分词器，所有分片共用
+	 * @param ramBufferMB 所有分片加起来的内存缓冲区，单位MB
+	 */
+	public IndexShards(String root, int shards, Analyzer analyzer, double ramBufferMB) throws IOException
+	{
+		if(shards < 1) throw new IllegalArgumentException("shards必须大于0：" + shards);
+		this.paths = shardPaths(root, shards);
+		this.directories = new Directory[shards];
+		this.writers = new IndexWriter[shards];
+		boolean success = false;
+		try
+		{
+			for(int i=0; i<shards; i++)
+			{
+				FileUtil.delete(new File(paths[i])); // 上次留下的分片
+				directories[i] = FSDirectory.open(FileSystems.getDefault().getPath(paths[i]));
+				IndexWriterConfig config = IndexWriterProfile.bulkLoad(analyzer, ramBufferMB / shards);
+				config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+				writers[i] = new IndexWriter(directories[i], config);
+			}
+			success = true;
+		}
+		finally
+		{
+			if(!success) close();
+		}
+	}
+
+	/**
+	 * 每个分片所在的目录
+	 */
+	public static String[] shardPaths(String root, int shards)
+	{
+		String[] paths = new String[shards];
+		for(int i=0; i<shards; i++)
+			paths[i] = new File(root, "shard-" + i).getAbsolutePath();
+		return paths;
+	}
+
+	/**
+	 * 每个分片的IndexWriter，由这里负责提交和关闭
+	 */
+	public IndexWriter[] getWriters()
+	{
+		return writers.clone();
+	}
+
+	/**
+	 * 分片数
+	 */
+	public int size()
+	{
+		return writers.length;
+	}
+
+	/**
+	 * 提交所有分片并保留，用于直接搜索各个分片的场景；各分片同时合并段，互不等待
+	 * @param maxSegments 每个分片最多保留几个段，小于等于0表示不合并
+	 */
+	public void commit(int maxSegments) throws IOException
+	{
+		commit(maxSegments, true);
+	}
+
+	/**
+	 * 同时提交所有分片
+	 * @param finish 是否先调用{@link IndexWriterProfile#finishBulkLoad(IndexWriter, int)}，
+	 * 否则保持批量导入的配置提交，刷出的段不生成复合文件
+	 */
+	private void commit(final int maxSegments, final boolean finish) throws IOException
+	{
+		long start = System.currentTimeMillis();
+		ExecutorService pool = Executors.newFixedThreadPool(writers.length);
+		try
+		{
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for(final IndexWriter writer : writers)
+			{
+				futures.add(pool.submit(new Callable<Void>()
+				{
+					@Override
+					public Void call() throws Exception
+					{
+						if(finish) IndexWriterProfile.finishBulkLoad(writer, maxSegments);
+						IndexMetrics.commit(writer);
+						return null;
+					}
+				}));
+			}
+			for(Future<Void> future : futures)
+				future.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("提交分片时被中断", e);
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException) throw (IOException)cause;
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if(cause instanceof Error) throw (Error)cause;
+			throw new IOException("提交分片时出错", cause);
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+		log.info("{}个分片已提交，耗时{}ms", writers.length, System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * 提交并关闭所有分片，用addIndexes把它们的段直接复制进正式的索引，然后删除分片目录<br>
+	 * 复制的是已经建好的段，不需要重新分词；target在之后由调用者提交
+	 * @param target 正式索引的IndexWriter，一般已经清空
+	 * @param maxSegments 合并进来之后正式索引最多保留几个段，小于等于0表示不合并
+	 */
+	public void mergeInto(IndexWriter target, int maxSegments) throws IOException
+	{
+		long start = System.currentTimeMillis();
+		// 分片的段马上要复制进正式索引，不在分片里合并，也不生成复合文件，合并和复合文件只在target上做一次
+		commit(0, false);
+		for(int i=0; i<writers.length; i++)
+		{
+			writers[i].close();
+			writers[i] = null;
+		}
+		target.addIndexes(directories);
+		log.info("{}个分片已合并进索引，耗时{}ms", writers.length, System.currentTimeMillis() - start);
+		IndexWriterProfile.finishBulkLoad(target, maxSegments);
+		close();
+		for(String path : paths)
+			FileUtil.delete(new File(path));
+	}
+
+	/**
+	 * 关闭所有分片，没有提交的文档会被丢弃，所以出错时直接close()即可
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		Throwable error = null;
+		for(int i=0; i<writers.length; i++)
+		{
+			if(writers[i] == null) continue;
+			try
+			{
+				writers[i].rollback();
+			}
+			catch (Throwable t)
+			{
+				if(error == null) error = t;
+			}
+			writers[i] = null;
+		}
+		IOUtils.close(directories);
+		if(error != null) IOUtils.reThrow(error);
+	}
+}
@@ -0,0 +1,91 @@
+package com.test.index;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LiveIndexWriterConfig;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 创建IndexWriter用的配置，分两种：<br>
+ * 日常的增量更新用{@link #defaults(Analyzer)}，就是Lucene的默认配置；<br>
+ * 全量重建用{@link #bulkLoad(Analyzer, double)}：内存缓冲区大，只按内存占用刷新段，刷出的段越大越少，后台合并的次数就越少；
+ * 建的过程中不生成复合文件（cfs），省掉每个段多复制一遍；合并线程数按CPU核数设置，并且不限制合并的磁盘速度。
+ * 写完之后调用{@link #finishBulkLoad(IndexWriter, int)}把索引合并成少数几个段，搜索时要查的段少了会更快，
+ * 同时恢复复合文件的设置，之后继续用这个IndexWriter增量更新时和默认配置一样<br>
+ * 两种配置都会统计分词和合并的耗时，见{@link IndexMetrics}
+ * @author liuxianan
+ */
+public final class IndexWriterProfile
+{
+	private static final Logger log = LoggerFactory.getLogger(IndexWriterProfile.class);
+
+	/** 全量重建时默认的内存缓冲区大小，单位MB */
+	public static final double DEFAULT_BULK_RAM_BUFFER_MB = 256;
+
+	private IndexWriterProfile()
+	{
+	}
+
+	/**
+	 * 默认配置，用于增量更新
+	 */
+	public static IndexWriterConfig defaults(Analyzer analyzer)
+	{
+		IndexWriterConfig config = new IndexWriterConfig(new TimingAnalyzer(analyzer));
+		config.setMergeScheduler(new TimedMergeScheduler());
+		return config;
+	}
+
+	/**
+	 * 全量重建用的配置，内存缓冲区为{@link #DEFAULT_BULK_RAM_BUFFER_MB}
+	 */
+	public static IndexWriterConfig bulkLoad(Analyzer analyzer)
+	{
+		return bulkLoad(analyzer, DEFAULT_BULK_RAM_BUFFER_MB);
+	}
+
+	/**
+	 * 全量重建用的配置
+	 * @param ramBufferMB 内存缓冲区大小，单位MB，所有写索引的线程共用，JVM的堆要留出这么多
+	 */
+	public static IndexWriterConfig bulkLoad(Analyzer analyzer, double ramBufferMB)
+	{
+		IndexWriterConfig config = new IndexWriterConfig(new TimingAnalyzer(analyzer));
+		config.setRAMBufferSizeMB(ramBufferMB);
+		config.setMaxBufferedDocs(IndexWriterConfig.DISABLE_AUTO_FLUSH); // 只按内存占用刷新，不按文档数
+		config.setUseCompoundFile(false);
+		TieredMergePolicy mergePolicy = new TieredMergePolicy();
+		mergePolicy.setNoCFSRatio(0); // 合并出的段也不生成复合文件
+		config.setMergePolicy(mergePolicy);
+		// 另一半的核留给分词和写索引的线程
+		int cores = Runtime.getRuntime().availableProcessors();
+		int mergeThreads = Math.max(1, cores / 2);
+		ConcurrentMergeScheduler mergeScheduler = new TimedMergeScheduler();
+		mergeScheduler.setMaxMergesAndThreads(mergeThreads + 5, mergeThreads);
+		mergeScheduler.disableAutoIOThrottle(); // 重建时没有搜索在等磁盘，合并全速进行
+		config.setMergeScheduler(mergeScheduler);
+		return config;
+	}
+
+	/**
+	 * 全量重建写完所有文档之后、提交之前调用：恢复复合文件的设置，然后合并段
+	 * @param maxSegments 最多保留几个段，小于等于0表示不合并
+	 */
+	public static void finishBulkLoad(IndexWriter indexWriter, int maxSegments) throws IOException
+	{
+		LiveIndexWriterConfig config = indexWriter.getConfig();
+		config.setUseCompoundFile(true);
+		// 和默认一样，只有小于整个索引10%的段才生成复合文件，合并出的大段不生成
+		config.getMergePolicy().setNoCFSRatio(TieredMergePolicy.DEFAULT_NO_CFS_RATIO);
+		if(maxSegments <= 0) return;
+		long start = System.currentTimeMillis();
+		indexWriter.forceMerge(maxSegments);
+		log.info("索引已合并成{}个段，耗时{}ms", maxSegments, System.currentTimeMillis() - start);
+	}
+}
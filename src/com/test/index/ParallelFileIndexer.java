@@ -0,0 +1,358 @@
+package com.test.index;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.Bits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.test.util.FileUtil.TraverseExecuter;
+import com.test.util.FileWalker;
+
+/**
+ * 多线程的文件索引流水线：<br>
+ * {@link FileWalker}并行遍历目录，发现的文件立即放入{@link IndexPipeline}的有界队列，若干个工作线程从队列中取出文件，
+ * 读取内容、创建Document后写入共享的IndexWriter（IndexWriter本身是线程安全的），遍历和建索引同时进行<br>
+ * 队列满时遍历线程会被阻塞，所以内存占用只和队列长度有关，和文件总数无关<br>
+ * 单个文件读取失败或者不能索引时只跳过这个文件；工作线程出现处理不了的错误（比如IndexWriter的致命错误）时遍历停止，
+ * 其余工作线程退出后index()/update()抛出这个错误<br>
+ * 支持全量（{@link #index(String)}）和增量（{@link #update(String)}）两种模式；
+ * 全量时可以设置分片（{@link #setShardWriters(IndexWriter[])}），工作线程轮流分配到各个分片的IndexWriter
+ * @author liuxianan
+ */
+public class ParallelFileIndexer
+{
+	private static final Logger log = LoggerFactory.getLogger(ParallelFileIndexer.class);
+
+	private final IndexWriter indexWriter;
+	private final int threads;
+	private final int queueSize;
+	private FileDocumentBuilder documentBuilder = new FileDocumentBuilder(); // 每个工作线程复制一份使用
+	private FileWalker walker = new FileWalker(); // 负责发现文件
+	private IndexWriter[] shardWriters; // 不为null时全量索引写到这些分片，而不是indexWriter
+
+	/**
+	 * @param indexWriter 共享的IndexWriter，由调用者负责关闭
+	 * @param threads 工作线程数
+	 * @param queueSize 待索引文件队列的长度
+	 */
+	public ParallelFileIndexer(IndexWriter indexWriter, int threads, int queueSize)
+	{
+		if(threads < 1) throw new IllegalArgumentException("threads必须大于0：" + threads);
+		if(queueSize < 1) throw new IllegalArgumentException("queueSize必须大于0：" + queueSize);
+		this.indexWriter = indexWriter;
+		this.threads = threads;
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * 设置创建文档的配置，比如流式读取、文件编码等
+	 */
+	public void setDocumentBuilder(FileDocumentBuilder documentBuilder)
+	{
+		this.documentBuilder = documentBuilder;
+	}
+
+	/**
+	 * 设置发现文件的方式，比如包含/排除规则、最大深度、遍历线程数等
+	 */
+	public void setFileWalker(FileWalker walker)
+	{
+		this.walker = walker;
+	}
+
+	/**
+	 * 全量索引时写到多个分片，见{@link IndexShards}，第i个工作线程写第i % 分片数个分片<br>
+	 * 分片的提交和关闭由调用者负责，不影响增量更新
+	 * @param shardWriters 为null表示不分片，直接写构造时传入的IndexWriter
+	 */
+	public void setShardWriters(IndexWriter[] shardWriters)
+	{
+		if(shardWriters != null && shardWriters.length == 0) throw new IllegalArgumentException("至少需要一个分片");
+		this.shardWriters = shardWriters;
+	}
+
+	/**
+	 * 扫描某个路径下的所有文件并建立索引，会一直阻塞到所有文件都处理完毕
+	 * @param scanPath 需要被扫描的路径
+	 * @return 成功写入索引的文件数
+	 * @throws IOException 写索引时出现致命错误
+	 * @throws InterruptedException
+	 */
+	public long index(String scanPath) throws IOException, InterruptedException
+	{
+		long count = run(scanPath, null, new ArrayList<String>());
+		log.info("文件索引完成，共索引{}个文件", count);
+		return count;
+	}
+
+	/**
+	 * 增量更新索引：对比磁盘上文件的修改时间和大小与索引中记录的是否一致，
+	 * 只重新索引新增和修改过的文件，并删除磁盘上已经不存在的文件对应的文档<br>
+	 * 遍历时无法读取的目录（没有权限、IO出错等）下的文档不会被删除，等下次能读取时再同步<br>
+	 * 注意：依赖不分词的filePath字段，旧版本建立的索引需要先全量重建一次
+	 * @param scanPath 需要被扫描的路径
+	 * @return 重新写入索引的文件数
+	 * @throws IOException 写索引时出现致命错误
+	 * @throws InterruptedException
+	 */
+	public long update(String scanPath) throws IOException, InterruptedException
+	{
+		// 扫描路径不存在时什么都扫不到，不能因此把整个索引都删掉
+		if(!new File(scanPath).exists()) throw new FileNotFoundException("扫描路径不存在：" + scanPath);
+		Map<String, long[]> stamps = loadStamps();
+		int total = stamps.size();
+		List<String> failed = new ArrayList<String>();
+		long count = run(scanPath, stamps, failed);
+		// 剩下的都是索引里有但遍历时没有找到的文件，没能读取的目录下的不一定已经删除了，保留
+		int deleted = 0, kept = 0;
+		for(String path : stamps.keySet())
+		{
+			if(isUnder(path, failed))
+			{
+				kept++;
+				continue;
+			}
+			indexWriter.deleteDocuments(new Term("filePath", path));
+			deleted++;
+		}
+		if(!failed.isEmpty()) log.warn("有{}个路径无法读取，其中的{}个文件没有删除：{}", new Object[]{failed.size(), kept, failed});
+		log.info("增量索引完成，原有{}个文件，重新索引{}个，删除{}个", new Object[]{total, count, deleted});
+		return count;
+	}
+
+	/**
+	 * 文件是否是某个路径本身或者在它下面
+	 */
+	private static boolean isUnder(String filePath, List<String> dirs)
+	{
+		for(String dir : dirs)
+		{
+			if(filePath.equals(dir) || filePath.startsWith(dir.endsWith(File.separator) ? dir : dir + File.separator)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * 读取索引中所有文件的修改时间和大小
+	 * @return 文件路径 -> {修改时间, 文件大小}
+	 */
+	private Map<String, long[]> loadStamps() throws IOException
+	{
+		Map<String, long[]> stamps = new ConcurrentHashMap<String, long[]>();
+		DirectoryReader reader = DirectoryReader.open(indexWriter, true);
+		try
+		{
+			Set<String> fields = new HashSet<String>(Arrays.asList("filePath", "updateTime", "fileSize"));
+			for(LeafReaderContext context : reader.leaves())
+			{
+				LeafReader leafReader = context.reader();
+				Bits liveDocs = leafReader.getLiveDocs();
+				for(int i=0; i<leafReader.maxDoc(); i++)
+				{
+					if(liveDocs != null && !liveDocs.get(i)) continue;
+					DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(fields);
+					leafReader.document(i, visitor);
+					Document document = visitor.getDocument();
+					String path = document.get("filePath");
+					if(path == null) continue;
+					long updateTime = readLong(document.getField("updateTime"));
+					// 旧索引没有记录文件大小，记为-1让它重新索引
+					long size = readLong(document.getField("fileSize"));
+					stamps.put(path, new long[]{updateTime, size});
+				}
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return stamps;
+	}
+
+	/**
+	 * 读取存储的数值，旧版本的索引里updateTime是字符串，也能兼容
+	 * @return 字段不存在或无法解析时返回-1，这样文件一定会被重新索引
+	 */
+	private static long readLong(IndexableField field)
+	{
+		if(field == null) return -1;
+		Number value = field.numericValue();
+		if(value != null) return value.longValue();
+		try
+		{
+			return Long.parseLong(field.stringValue());
+		}
+		catch (NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+
+	/**
+	 * 执行索引流水线
+	 * @param stamps 增量模式下索引中已有文件的修改时间和大小，会移除掉所有扫描到的文件；全量模式为null
+	 * @param failed 遍历时无法读取的路径会加到这里
+	 */
+	private long run(String scanPath, Map<String, long[]> stamps, List<String> failed) throws IOException, InterruptedException
+	{
+		IndexPipeline<File> pipeline = new IndexPipeline<File>("file-indexer", threads, queueSize, new WorkerFactory(stamps != null));
+		try
+		{
+			pipeline.start();
+			long start = System.nanoTime();
+			try
+			{
+				// 并行遍历被扫描目录下的所有文件，包括子目录，边遍历边放入队列
+				failed.addAll(walker.walk(scanPath, new Discoverer(pipeline, stamps)));
+			}
+			catch (CancellationException e)
+			{
+				// 工作线程出错导致遍历中止，具体的错误在下面finish()时抛出
+			}
+			IndexMetrics.DISCOVER.update(System.nanoTime() - start);
+			return pipeline.finish();
+		}
+		finally
+		{
+			pipeline.close();
+		}
+	}
+
+	/**
+	 * 判断文件和索引中记录的相比有没有变化
+	 * @param stamp 索引中记录的{修改时间, 文件大小}，为null表示是新文件
+	 */
+	private static boolean isUnchanged(File file, long[] stamp)
+	{
+		return stamp != null && stamp[0] == file.lastModified() && stamp[1] == file.length();
+	}
+
+	/**
+	 * 遍历到的文件放入队列，增量模式下跳过没有变化的文件，会被多个遍历线程同时调用
+	 */
+	private static class Discoverer implements TraverseExecuter
+	{
+		private final IndexPipeline<File> pipeline;
+		private final Map<String, long[]> stamps;
+
+		public Discoverer(IndexPipeline<File> pipeline, Map<String, long[]> stamps)
+		{
+			this.pipeline = pipeline;
+			this.stamps = stamps;
+		}
+
+		@Override
+		public void execute(String filePath, String fileName)
+		{
+			File file = new File(filePath);
+			IndexMetrics.DISCOVERED.inc();
+			if(stamps != null && isUnchanged(file, stamps.remove(filePath))) return;
+			try
+			{
+				pipeline.put(file);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new CancellationException();
+			}
+		}
+	}
+
+	/**
+	 * 为每个工作线程创建一个Worker，各自持有一份FileDocumentBuilder
+	 */
+	private class WorkerFactory implements IndexPipeline.WorkerFactory<File>
+	{
+		private final boolean update; // 是否是增量模式，增量模式下按filePath替换已有的文档
+		private int workers = 0; // 已经创建的Worker数，用来分配分片
+
+		public WorkerFactory(boolean update)
+		{
+			this.update = update;
+		}
+
+		@Override
+		public IndexPipeline.Worker<File> newWorker()
+		{
+			// 增量模式要按filePath替换文档，只能写到原来的索引
+			IndexWriter writer = update || shardWriters == null ? indexWriter : shardWriters[workers % shardWriters.length];
+			workers++;
+			return new Worker(writer, update);
+		}
+	}
+
+	/**
+	 * 读取文件内容、创建Document后写入索引
+	 */
+	private class Worker implements IndexPipeline.Worker<File>
+	{
+		private final IndexWriter indexWriter;
+		private final boolean update;
+		private final FileDocumentBuilder builder = new FileDocumentBuilder(documentBuilder);
+
+		public Worker(IndexWriter indexWriter, boolean update)
+		{
+			this.indexWriter = indexWriter;
+			this.update = update;
+		}
+
+		@Override
+		public boolean process(File file) throws IOException
+		{
+			long start = System.nanoTime();
+			Document document = builder.build(file);
+			IndexMetrics.READ.update(System.nanoTime() - start);
+			if(document == null) return false;
+			try
+			{
+				start = System.nanoTime();
+				if(update)
+					indexWriter.updateDocument(new Term("filePath", file.getAbsolutePath()), document);
+				else
+					indexWriter.addDocument(document);
+				IndexMetrics.ADD_DOCUMENT.update(System.nanoTime() - start);
+				IndexMetrics.DOCS.inc();
+				IndexMetrics.BYTES.inc(file.length());
+				return true;
+			}
+			catch (IllegalArgumentException e)
+			{
+				// 单个文档的问题（比如超长的词）不影响IndexWriter，跳过即可
+				log.error("索引文件失败：" + file.getAbsolutePath(), e);
+				return false;
+			}
+			catch (IOException e)
+			{
+				// 流式模式下分词时才读文件，文件在发现之后被删除、截断或锁住都会在这里出错，只影响这一个文档；
+				// IndexWriter自己出了致命错误时才需要停止整个流水线
+				if(indexWriter.getTragicException() != null) throw e;
+				log.error("读取文件失败，已跳过：" + file.getAbsolutePath(), e);
+				return false;
+			}
+			finally
+			{
+				builder.release();
+			}
+		}
+	}
+}
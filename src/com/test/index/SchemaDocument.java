@@ -0,0 +1,211 @@
+package com.test.index;
+
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.util.BytesRef;
+
+import com.test.index.IndexSchema.FieldDef;
+
+/**
+ * 按{@link IndexSchema}创建的可以重复使用的文档：各个字段只创建一次，之后每次只更新值<br>
+ * 字段值为null或调用{@link #remove(String)}时从文档中去掉，再次设置值时重新加入<br>
+ * 返回的文档在下一次设置值之前写入索引即可，所以每个实例同一时刻只能处理一个文档，多线程时每个线程创建一个
+ * @author liuxianan
+ */
+public class SchemaDocument
+{
+	private final IndexSchema schema;
+	private final Document document = new Document();
+	private final Map<String, Slot> slots = new HashMap<String, Slot>();
+
+	/**
+	 * 一个字段对应的Field对象，按需创建；first、second是当前在文档里的Field
+	 */
+	private static class Slot
+	{
+		final FieldDef def;
+		Field value; // 字符串
+		Field number; // 数值
+		Field docValues;
+		Field reader; // 以Reader分词的全文
+		Field stored; // 以Reader分词时单独存储的部分
+		Field first;
+		Field second;
+
+		Slot(FieldDef def)
+		{
+			this.def = def;
+		}
+	}
+
+	public SchemaDocument(IndexSchema schema)
+	{
+		this.schema = schema;
+		for(FieldDef def : schema.getFields())
+			slots.put(def.getName(), new Slot(def));
+	}
+
+	public IndexSchema getSchema()
+	{
+		return schema;
+	}
+
+	/**
+	 * 当前的文档，每次返回的都是同一个对象
+	 */
+	public Document getDocument()
+	{
+		return document;
+	}
+
+	/**
+	 * 设置字符串的值，LONG字段会转换成数值
+	 * @param value 为null时从文档中去掉这个字段
+	 */
+	public void set(String name, String value)
+	{
+		Slot slot = slot(name);
+		if(value == null)
+		{
+			activate(slot, null, null);
+			return;
+		}
+		FieldDef def = slot.def;
+		switch(def.getType())
+		{
+			case LONG:
+			case DOC_VALUES:
+				set(name, Long.parseLong(value));
+				return;
+			case KEYWORD:
+				if(slot.value == null) slot.value = new StringField(name, "", def.isStored() ? Field.Store.YES : Field.Store.NO);
+				slot.value.setStringValue(value);
+				if(def.hasDocValues())
+				{
+					if(slot.docValues == null) slot.docValues = new SortedDocValuesField(name, new BytesRef());
+					slot.docValues.setBytesValue(new BytesRef(value));
+				}
+				break;
+			case TEXT:
+				if(slot.value == null) slot.value = new Field(name, "", textType(def, def.isStored()));
+				slot.value.setStringValue(value);
+				break;
+			default:
+				if(slot.value == null) slot.value = new StoredField(name, "");
+				slot.value.setStringValue(value);
+				break;
+		}
+		activate(slot, slot.value, slot.docValues);
+	}
+
+	/**
+	 * 设置数值，KEYWORD和TEXT字段会转换成字符串
+	 */
+	public void set(String name, long value)
+	{
+		Slot slot = slot(name);
+		FieldDef def = slot.def;
+		switch(def.getType())
+		{
+			case LONG:
+				if(slot.number == null) slot.number = new LongField(name, 0L, def.isStored() ? Field.Store.YES : Field.Store.NO);
+				slot.number.setLongValue(value);
+				if(def.hasDocValues())
+				{
+					if(slot.docValues == null) slot.docValues = new NumericDocValuesField(name, 0L);
+					slot.docValues.setLongValue(value);
+				}
+				activate(slot, slot.number, slot.docValues);
+				break;
+			case DOC_VALUES:
+				if(slot.docValues == null) slot.docValues = new NumericDocValuesField(name, 0L);
+				slot.docValues.setLongValue(value);
+				activate(slot, slot.docValues, null);
+				break;
+			case STORED:
+				if(slot.number == null) slot.number = new StoredField(name, 0L);
+				slot.number.setLongValue(value);
+				activate(slot, slot.number, null);
+				break;
+			default:
+				set(name, Long.toString(value));
+				break;
+		}
+	}
+
+	/**
+	 * 以Reader的形式设置TEXT字段，分词器直接从流中读取，不会存储<br>
+	 * 字段需要存储时另外传入要存储的部分，如前若干个字符用于显示摘要
+	 * @param reader 分词的内容，写入索引后由分词器关闭
+	 * @param storedValue 存储的内容，为null或字段不存储时不存储
+	 */
+	public void setReader(String name, Reader reader, String storedValue)
+	{
+		Slot slot = slot(name);
+		if(slot.def.getType() != IndexSchema.Type.TEXT) throw new IllegalArgumentException("只有TEXT字段可以用Reader设置：" + name);
+		// 以Reader分词的字段只能用Reader创建
+		if(slot.reader == null) slot.reader = new Field(name, reader, textType(slot.def, false));
+		else slot.reader.setReaderValue(reader);
+		Field stored = null;
+		if(storedValue != null && slot.def.isStored())
+		{
+			if(slot.stored == null) slot.stored = new StoredField(name, "");
+			slot.stored.setStringValue(storedValue);
+			stored = slot.stored;
+		}
+		activate(slot, slot.reader, stored);
+	}
+
+	/**
+	 * 分词字段的类型，需要时在倒排表里记录偏移位置
+	 */
+	private static FieldType textType(FieldDef def, boolean stored)
+	{
+		FieldType type = stored ? TextField.TYPE_STORED : TextField.TYPE_NOT_STORED;
+		if(!def.hasOffsets()) return type;
+		type = new FieldType(type);
+		type.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+		type.freeze();
+		return type;
+	}
+
+	/**
+	 * 从文档中去掉这个字段
+	 */
+	public void remove(String name)
+	{
+		activate(slot(name), null, null);
+	}
+
+	private Slot slot(String name)
+	{
+		Slot slot = slots.get(name);
+		if(slot == null) schema.getField(name); // 抛出没有定义字段的异常
+		return slot;
+	}
+
+	/**
+	 * 让文档里这个字段正好是给定的Field，和当前的一样时什么都不做，所以一般情况下不会改动文档
+	 */
+	private void activate(Slot slot, Field first, Field second)
+	{
+		if(slot.first == first && slot.second == second) return;
+		document.removeFields(slot.def.getName());
+		if(first != null) document.add(first);
+		if(second != null) document.add(second);
+		slot.first = first;
+		slot.second = second;
+	}
+}
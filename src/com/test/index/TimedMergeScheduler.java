@@ -0,0 +1,29 @@
+package com.test.index;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MergePolicy;
+
+/**
+ * 统计每次合并的耗时和合并的文档数（{@link IndexMetrics#MERGE}、{@link IndexMetrics#MERGED_DOCS}），其余和ConcurrentMergeScheduler一样
+ * @author liuxianan
+ */
+class TimedMergeScheduler extends ConcurrentMergeScheduler
+{
+	@Override
+	protected void doMerge(IndexWriter writer, MergePolicy.OneMerge merge) throws IOException
+	{
+		long start = System.nanoTime();
+		try
+		{
+			super.doMerge(writer, merge);
+		}
+		finally
+		{
+			IndexMetrics.MERGE.update(System.nanoTime() - start);
+			IndexMetrics.MERGED_DOCS.inc(merge.totalMaxDoc);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.test.index;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+
+/**
+ * 包装一个分词器，统计分词的耗时和词数（{@link IndexMetrics#ANALYZE}、{@link IndexMetrics#TOKENS}）<br>
+ * 分词是在IndexWriter里边读边分的，没法在外面计时，所以在分词结果的最外层加一个过滤器，
+ * 累计每次取下一个词花的时间，一个字段分完（end()）时记一次<br>
+ * 每个词都计时要多调用两次System.nanoTime()，所以只对每{@link #SAMPLE_INTERVAL}个字段中的一个计时，
+ * 其余的只数词数，耗时的分布不受影响，次数是实际字段数的几分之一
+ * @author liuxianan
+ */
+class TimingAnalyzer extends AnalyzerWrapper
+{
+	/** 每多少个字段计时一次 */
+	static final int SAMPLE_INTERVAL = 16;
+
+	private final Analyzer delegate;
+
+	TimingAnalyzer(Analyzer delegate)
+	{
+		super(delegate.getReuseStrategy());
+		this.delegate = delegate;
+	}
+
+	@Override
+	protected Analyzer getWrappedAnalyzer(String fieldName)
+	{
+		return delegate;
+	}
+
+	@Override
+	protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components)
+	{
+		return new TokenStreamComponents(components.getTokenizer(), new TimingFilter(components.getTokenStream()));
+	}
+
+	private static class TimingFilter extends TokenFilter
+	{
+		private long nanos;
+		private long tokens;
+		private int fields = 0; // 这个过滤器处理过的字段数，用来抽样
+		private boolean sampled; // 当前字段是否计时
+
+		TimingFilter(TokenStream input)
+		{
+			super(input);
+		}
+
+		@Override
+		public boolean incrementToken() throws IOException
+		{
+			boolean hasNext;
+			if(sampled)
+			{
+				long start = System.nanoTime();
+				hasNext = input.incrementToken();
+				nanos += System.nanoTime() - start;
+			}
+			else
+				hasNext = input.incrementToken();
+			if(hasNext) tokens++;
+			return hasNext;
+		}
+
+		@Override
+		public void reset() throws IOException
+		{
+			super.reset();
+			nanos = 0;
+			tokens = 0;
+			sampled = fields++ % SAMPLE_INTERVAL == 0;
+		}
+
+		@Override
+		public void end() throws IOException
+		{
+			super.end();
+			if(sampled) IndexMetrics.ANALYZE.update(nanos);
+			IndexMetrics.TOKENS.inc(tokens);
+		}
+	}
+}
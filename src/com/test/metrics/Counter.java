@@ -0,0 +1,48 @@
+package com.test.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 计数：文档数、字节数这类只增不减的量，同时给出从创建到现在的平均速率（每秒多少）<br>
+ * 线程安全
+ * @author liuxianan
+ */
+public class Counter implements CounterMBean
+{
+	private final String name;
+	private final AtomicLong count = new AtomicLong();
+	private final long startNanos = System.nanoTime();
+
+	Counter(String name)
+	{
+		this.name = name;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public void inc()
+	{
+		count.incrementAndGet();
+	}
+
+	public void inc(long n)
+	{
+		count.addAndGet(n);
+	}
+
+	@Override
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	@Override
+	public double getMeanRate()
+	{
+		long elapsed = System.nanoTime() - startNanos;
+		return elapsed <= 0 ? 0 : count.get() * 1e9 / elapsed;
+	}
+}
@@ -0,0 +1,15 @@
+package com.test.metrics;
+
+/**
+ * {@link Counter}在JMX里显示的属性
+ * @author liuxianan
+ */
+public interface CounterMBean
+{
+	public long getCount();
+
+	/**
+	 * 从创建到现在平均每秒的增量
+	 */
+	public double getMeanRate();
+}
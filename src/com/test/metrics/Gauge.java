@@ -0,0 +1,10 @@
+package com.test.metrics;
+
+/**
+ * 瞬时值：每次读取时现算，比如索引多久没有刷新了
+ * @author liuxianan
+ */
+public interface Gauge
+{
+	public long getValue();
+}
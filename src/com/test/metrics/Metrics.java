@@ -0,0 +1,160 @@
+package com.test.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 全局的指标登记处：按名字取得{@link Timer}、{@link Counter}，或者登记{@link Gauge}，同一个名字总是得到同一个对象<br>
+ * 每个指标创建时同时注册成JMX的MBean（ObjectName为com.test:type=Timer|Counter|Gauge,name="名字"），
+ * 用jconsole/jvisualvm连上进程就能看到；定期写日志用{@link MetricsReporter}<br>
+ * 名字用点分隔，前面是模块，如index.analyze、search.highlight<br>
+ * 线程安全
+ * @author liuxianan
+ */
+public final class Metrics
+{
+	private static final Logger log = LoggerFactory.getLogger(Metrics.class);
+	private static final String DOMAIN = "com.test";
+
+	private static final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+	private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+	private static final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+	private Metrics()
+	{
+	}
+
+	/**
+	 * 取得某个名字的耗时统计，没有时创建
+	 */
+	public static Timer timer(String name)
+	{
+		Timer timer = timers.get(name);
+		if(timer == null)
+		{
+			Timer created = new Timer(name);
+			timer = timers.putIfAbsent(name, created);
+			if(timer == null)
+			{
+				timer = created;
+				register("Timer", name, new StandardMBean(created, TimerMBean.class, false));
+			}
+		}
+		return timer;
+	}
+
+	/**
+	 * 取得某个名字的计数，没有时创建
+	 */
+	public static Counter counter(String name)
+	{
+		Counter counter = counters.get(name);
+		if(counter == null)
+		{
+			Counter created = new Counter(name);
+			counter = counters.putIfAbsent(name, created);
+			if(counter == null)
+			{
+				counter = created;
+				register("Counter", name, new StandardMBean(created, CounterMBean.class, false));
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * 登记一个瞬时值，已有同名的会被替换
+	 */
+	public static void gauge(String name, Gauge gauge)
+	{
+		gauges.put(name, gauge);
+		register("Gauge", name, new StandardMBean(gauge, Gauge.class, false));
+	}
+
+	/**
+	 * 去掉一个瞬时值，通常是它引用的对象关闭了
+	 */
+	public static void removeGauge(String name)
+	{
+		if(gauges.remove(name) != null) unregister("Gauge", name);
+	}
+
+	/**
+	 * 所有耗时统计，按名字排序
+	 */
+	public static Map<String, Timer> getTimers()
+	{
+		return new TreeMap<String, Timer>(timers);
+	}
+
+	/**
+	 * 所有计数，按名字排序
+	 */
+	public static Map<String, Counter> getCounters()
+	{
+		return new TreeMap<String, Counter>(counters);
+	}
+
+	/**
+	 * 所有瞬时值，按名字排序
+	 */
+	public static Map<String, Gauge> getGauges()
+	{
+		return new TreeMap<String, Gauge>(gauges);
+	}
+
+	/**
+	 * 对应的JMX名字
+	 */
+	public static ObjectName objectName(String type, String name)
+	{
+		try
+		{
+			return new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+		}
+		catch (Exception e)
+		{
+			throw new IllegalArgumentException("指标名不合法：" + name, e);
+		}
+	}
+
+	// JMX只是用来查看的，注册失败（比如被安全策略禁止）不能影响索引和搜索，记一下日志就行
+	private static synchronized void register(String type, String name, StandardMBean mbean)
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = objectName(type, name);
+			if(server.isRegistered(objectName)) server.unregisterMBean(objectName);
+			server.registerMBean(mbean, objectName);
+		}
+		catch (Exception e)
+		{
+			log.warn("注册MBean失败：" + name, e);
+		}
+	}
+
+	private static synchronized void unregister(String type, String name)
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = objectName(type, name);
+			if(server.isRegistered(objectName)) server.unregisterMBean(objectName);
+		}
+		catch (Exception e)
+		{
+			log.warn("注销MBean失败：" + name, e);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package com.test.metrics;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 定期把{@link Metrics}里的指标写到日志：耗时统计和计数都只写这一段时间内的增量，
+ * 这样能直接看出最近的吞吐量（每秒多少文档、多少字节）和延迟，没有变化的不写<br>
+ * 每行的格式：<br>
+ * timer 名字 count=次数 mean=平均ms p95=95分位ms<br>
+ * counter 名字 +增量 (每秒多少/s)<br>
+ * gauge 名字 当前值<br>
+ * 使用完后需要调用close()
+ * @author liuxianan
+ */
+public class MetricsReporter implements Closeable
+{
+	private static final Logger log = LoggerFactory.getLogger(MetricsReporter.class);
+
+	private final ScheduledExecutorService scheduler;
+	private final Map<String, Timer.Snapshot> lastTimers = new HashMap<String, Timer.Snapshot>();
+	private final Map<String, Long> lastCounters = new HashMap<String, Long>();
+	private long lastTime = System.nanoTime();
+
+	/**
+	 * 创建后马上开始，每隔periodMillis写一次
+	 */
+	public MetricsReporter(long periodMillis)
+	{
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "metrics-reporter");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleAtFixedRate(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					report();
+				}
+				catch (Exception e)
+				{
+					log.error("输出指标失败：", e);
+				}
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 立即写一次从上次到现在的增量
+	 */
+	public synchronized void report()
+	{
+		long now = System.nanoTime();
+		double seconds = Math.max(1, now - lastTime) / 1e9;
+		lastTime = now;
+		StringBuilder sb = new StringBuilder();
+		for(Map.Entry<String, Timer> entry : Metrics.getTimers().entrySet())
+		{
+			Timer.Snapshot current = entry.getValue().snapshot();
+			Timer.Snapshot last = lastTimers.put(entry.getKey(), current);
+			Timer.Snapshot delta = last == null ? current : current.minus(last);
+			if(delta.getCount() == 0) continue;
+			sb.append(String.format("%ntimer %s count=%d mean=%.3fms p95=%.3fms", entry.getKey(),
+					delta.getCount(), delta.getMeanMillis(), delta.getPercentileMillis(0.95)));
+		}
+		for(Map.Entry<String, Counter> entry : Metrics.getCounters().entrySet())
+		{
+			long current = entry.getValue().getCount();
+			Long last = lastCounters.put(entry.getKey(), current);
+			long delta = last == null ? current : current - last;
+			if(delta == 0) continue;
+			sb.append(String.format("%ncounter %s +%d (%.1f/s)", entry.getKey(), delta, delta / seconds));
+		}
+		for(Map.Entry<String, Gauge> entry : Metrics.getGauges().entrySet())
+			sb.append(String.format("%ngauge %s %d", entry.getKey(), entry.getValue().getValue()));
+		if(sb.length() > 0) log.info("最近{}秒的指标：{}", String.format("%.1f", seconds), sb);
+	}
+
+	/**
+	 * 停止定期输出，停止前再写一次
+	 */
+	@Override
+	public void close()
+	{
+		scheduler.shutdownNow();
+		report();
+	}
+}
@@ -0,0 +1,190 @@
+package com.test.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 耗时统计：次数、总耗时、最大耗时，以及按2的幂分桶的直方图（第i个桶是[2^i, 2^(i+1))微秒），用来估算分位数<br>
+ * 分桶是固定的，记录一次只是几个原子加法，不需要加锁，也不会随着次数增加占用更多内存；分位数的误差在桶内线性插值后一般在10%以内<br>
+ * 用法：long start = System.nanoTime(); ...; timer.update(System.nanoTime() - start);<br>
+ * 线程安全
+ * @author liuxianan
+ */
+public class Timer implements TimerMBean
+{
+	private static final int BUCKETS = 40; // 最大的桶从2^39微秒（约6天）开始
+
+	private final String name;
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	Timer(String name)
+	{
+		this.name = name;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * 记录一次耗时
+	 * @param nanos 纳秒，小于0时记为0
+	 */
+	public void update(long nanos)
+	{
+		if(nanos < 0) nanos = 0;
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		buckets.incrementAndGet(bucket(nanos));
+		long max;
+		while(nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos));
+	}
+
+	/**
+	 * 记录一次耗时
+	 */
+	public void update(long duration, TimeUnit unit)
+	{
+		update(unit.toNanos(duration));
+	}
+
+	private static int bucket(long nanos)
+	{
+		long micros = nanos / 1000;
+		if(micros == 0) return 0;
+		return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+	}
+
+	/**
+	 * 当前的统计数据，用于计算某段时间内的增量
+	 */
+	public Snapshot snapshot()
+	{
+		long[] counts = new long[BUCKETS];
+		for(int i=0; i<BUCKETS; i++)
+			counts[i] = buckets.get(i);
+		return new Snapshot(count.get(), totalNanos.get(), counts);
+	}
+
+	@Override
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	@Override
+	public double getTotalMillis()
+	{
+		return totalNanos.get() / 1e6;
+	}
+
+	@Override
+	public double getMeanMillis()
+	{
+		return snapshot().getMeanMillis();
+	}
+
+	@Override
+	public double getMaxMillis()
+	{
+		return maxNanos.get() / 1e6;
+	}
+
+	@Override
+	public double get50thPercentileMillis()
+	{
+		return percentile(0.5);
+	}
+
+	@Override
+	public double get95thPercentileMillis()
+	{
+		return percentile(0.95);
+	}
+
+	@Override
+	public double get99thPercentileMillis()
+	{
+		return percentile(0.99);
+	}
+
+	// 桶内插值的结果可能超过实际的最大值，次数少时尤其明显
+	private double percentile(double quantile)
+	{
+		return Math.min(snapshot().getPercentileMillis(quantile), getMaxMillis());
+	}
+
+	/**
+	 * 某一时刻的统计数据，两个相减得到这段时间内的统计
+	 */
+	public static class Snapshot
+	{
+		private final long count;
+		private final long totalNanos;
+		private final long[] buckets;
+
+		Snapshot(long count, long totalNanos, long[] buckets)
+		{
+			this.count = count;
+			this.totalNanos = totalNanos;
+			this.buckets = buckets;
+		}
+
+		/**
+		 * 从earlier到现在这段时间内的统计
+		 */
+		public Snapshot minus(Snapshot earlier)
+		{
+			long[] counts = new long[buckets.length];
+			for(int i=0; i<counts.length; i++)
+				counts[i] = buckets[i] - earlier.buckets[i];
+			return new Snapshot(count - earlier.count, totalNanos - earlier.totalNanos, counts);
+		}
+
+		public long getCount()
+		{
+			return count;
+		}
+
+		public double getTotalMillis()
+		{
+			return totalNanos / 1e6;
+		}
+
+		public double getMeanMillis()
+		{
+			return count == 0 ? 0 : totalNanos / 1e6 / count;
+		}
+
+		/**
+		 * 分位数的估计值
+		 * @param quantile 0到1之间，如0.95
+		 */
+		public double getPercentileMillis(double quantile)
+		{
+			long total = 0;
+			for(long n : buckets)
+				total += n;
+			if(total == 0) return 0;
+			double rank = quantile * total;
+			long seen = 0;
+			for(int i=0; i<buckets.length; i++)
+			{
+				if(buckets[i] == 0) continue;
+				if(seen + buckets[i] >= rank)
+				{
+					// 在桶内按均匀分布插值，任何一次都不会超过总耗时，只有一次时就是准确值
+					double low = i == 0 ? 0 : 1L << i, high = 1L << (i + 1);
+					return Math.min((low + (high - low) * (rank - seen) / buckets[i]) / 1000, getTotalMillis());
+				}
+				seen += buckets[i];
+			}
+			return (1L << buckets.length) / 1000.0;
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package com.test.metrics;
+
+/**
+ * {@link Timer}在JMX里显示的属性，都是从启动到现在的累计值，单位毫秒
+ * @author liuxianan
+ */
+public interface TimerMBean
+{
+	public long getCount();
+
+	public double getTotalMillis();
+
+	public double getMeanMillis();
+
+	public double getMaxMillis();
+
+	public double get50thPercentileMillis();
+
+	public double get95thPercentileMillis();
+
+	public double get99thPercentileMillis();
+}
@@ -0,0 +1,314 @@
+package com.test.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+
+/**
+ * 同时搜索多个索引，比如文件索引和数据库索引，用一个搜索框搜索所有内容<br>
+ * 每个索引用各自的{@link SearchService}配置（搜索哪些字段、高亮、ContentStore等），通过{@link #addIndex(String, SearchService)}加进来；
+ * 一次搜索时各个索引在线程池里同时搜索前N条，再用TopDocs.merge按分数合并，只对合并后的这一页读取字段和生成摘要，
+ * 所以耗时取决于最慢的那个索引，而不是所有索引加起来<br>
+ * 不同索引的分数是各自计算的，文档数和词频不同，不完全可比，可以用{@link Source#setBoost(float)}调整各个索引的权重；
+ * 不同索引的字段名可以用{@link Source#mapField(String, String)}映射成统一的名字，显示时不用区分来自哪个索引<br>
+ * 每个索引仍然受各自SearchService的并发限制和最大翻页范围约束，但不使用它的结果缓存，因为缓存的是单个索引的页，合并后的页不一样<br>
+ * 只负责合并，各个SearchService由调用者负责关闭；线程安全，使用完后需要调用close()
+ * @author liuxianan
+ */
+public class FederatedSearchService implements Closeable
+{
+	private final List<Source> sources = new CopyOnWriteArrayList<Source>();
+	private final ExecutorService executor = Executors.newCachedThreadPool(new SearchService.DaemonThreadFactory("federated-search"));
+	private int maxWindow = 10000; // 最多能翻到第几条，每个索引都要取这么多条再合并
+
+	/**
+	 * 参与搜索的一个索引
+	 */
+	public static class Source
+	{
+		private final String name;
+		private final SearchService searchService;
+		private volatile float boost = 1;
+		private final Map<String, String> names = new ConcurrentHashMap<String, String>(); // 索引里的字段名 -> 统一的字段名
+
+		Source(String name, SearchService searchService)
+		{
+			this.name = name;
+			this.searchService = searchService;
+		}
+
+		/**
+		 * 设置这个索引的权重，分数乘以它之后再和其它索引的结果合并，默认为1
+		 */
+		public Source setBoost(float boost)
+		{
+			if(boost <= 0) throw new IllegalArgumentException("boost必须大于0：" + boost);
+			this.boost = boost;
+			return this;
+		}
+
+		/**
+		 * 把索引里的字段映射成统一的名字，没有映射的字段保持原名
+		 * @param name 统一的字段名，如title
+		 * @param field 这个索引里的字段名，如fileName
+		 */
+		public Source mapField(String name, String field)
+		{
+			names.put(field, name);
+			return this;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public SearchService getSearchService()
+		{
+			return searchService;
+		}
+
+		/**
+		 * 把字段改成统一的名字
+		 */
+		private Document map(Document document)
+		{
+			if(names.isEmpty()) return document;
+			Document mapped = new Document();
+			for(IndexableField field : document.getFields())
+			{
+				String name = names.get(field.name());
+				mapped.add(name == null ? field : rename(name, field));
+			}
+			return mapped;
+		}
+
+		/**
+		 * 复制一个存储字段并改名，数值字段的stringValue()为null，要按原来的类型复制
+		 */
+		private static IndexableField rename(String name, IndexableField field)
+		{
+			Number number = field.numericValue();
+			if(number instanceof Integer) return new StoredField(name, number.intValue());
+			if(number instanceof Long) return new StoredField(name, number.longValue());
+			if(number instanceof Float) return new StoredField(name, number.floatValue());
+			if(number instanceof Double) return new StoredField(name, number.doubleValue());
+			if(field.binaryValue() != null) return new StoredField(name, field.binaryValue());
+			return new StoredField(name, field.stringValue());
+		}
+	}
+
+	/**
+	 * 加入一个索引
+	 * @param name 索引的名称，搜索结果里用{@link SearchHit#getIndex()}区分来自哪个索引
+	 * @return 用于设置权重和字段映射
+	 */
+	public Source addIndex(String name, SearchService searchService)
+	{
+		Source source = new Source(name, searchService);
+		sources.add(source);
+		return source;
+	}
+
+	/**
+	 * 设置最多能翻到第几条，默认10000
+	 */
+	public void setMaxWindow(int maxWindow)
+	{
+		if(maxWindow < 1) throw new IllegalArgumentException("maxWindow必须大于0：" + maxWindow);
+		this.maxWindow = maxWindow;
+	}
+
+	/**
+	 * 搜索所有索引，返回按分数合并后的前topN条
+	 */
+	public SearchResult search(String keyWord, int topN) throws IOException, ParseException
+	{
+		return search(keyWord, 0, topN);
+	}
+
+	/**
+	 * 搜索所有索引，返回按分数合并后的一页
+	 * @param start 跳过前面多少条
+	 * @param pageSize 每页条数
+	 * @throws IllegalArgumentException start + pageSize超过了这里或者某个索引的maxWindow
+	 * @throws SearchRejectedException 某个索引的并发搜索数已满
+	 */
+	public SearchResult search(String keyWord, int start, int pageSize) throws IOException, ParseException
+	{
+		if(start < 0 || pageSize < 1) throw new IllegalArgumentException("start不能小于0，pageSize必须大于0");
+		if((long)start + pageSize > maxWindow) throw new IllegalArgumentException("只能翻到第" + maxWindow + "条：" + (start + pageSize));
+		long begin = System.nanoTime();
+		SearchMetrics.REQUESTS.inc();
+		final List<Source> sources = new ArrayList<Source>(this.sources);
+		if(sources.isEmpty()) throw new IllegalStateException("还没有加入任何索引");
+		int n = sources.size();
+		// 每个索引的字段不同，分别解析，关键字有语法错误时在这里直接抛出
+		final Query[] queries = new Query[n];
+		for(int i=0; i<n; i++)
+		{
+			SearchService searchService = sources.get(i).searchService;
+			if(start + pageSize > searchService.getMaxWindow())
+				throw new IllegalArgumentException("索引" + sources.get(i).name + "只能翻到第" + searchService.getMaxWindow() + "条：" + (start + pageSize));
+			queries[i] = searchService.parse(keyWord);
+		}
+		List<ReferenceManager<IndexSearcher>> managers = new ArrayList<ReferenceManager<IndexSearcher>>(n);
+		final IndexSearcher[] searchers = new IndexSearcher[n];
+		List<Semaphore> permits = new ArrayList<Semaphore>(n);
+		try
+		{
+			// 按加入的顺序获取各个索引的许可，被拒绝时已经获取的在finally里释放
+			for(int i=0; i<n; i++)
+				permits.add(sources.get(i).searchService.admit());
+			for(int i=0; i<n; i++)
+			{
+				managers.add(sources.get(i).searchService.getSearcherManager());
+				searchers[i] = managers.get(i).acquire();
+			}
+			// 各个索引同时搜索
+			final int topN = start + pageSize;
+			List<Callable<TopDocs>> searches = new ArrayList<Callable<TopDocs>>(n);
+			for(int i=0; i<n; i++)
+			{
+				final int index = i;
+				searches.add(new Callable<TopDocs>()
+				{
+					@Override
+					public TopDocs call() throws Exception
+					{
+						long searchStart = System.nanoTime();
+						TopDocs topDocs = searchers[index].search(queries[index], topN);
+						SearchMetrics.SEARCH.update(System.nanoTime() - searchStart);
+						float boost = sources.get(index).boost;
+						for(ScoreDoc scoreDoc : topDocs.scoreDocs)
+							scoreDoc.score *= boost;
+						topDocs.setMaxScore(topDocs.getMaxScore() * boost);
+						return topDocs;
+					}
+				});
+			}
+			List<TopDocs> results = invokeAll(searches);
+			// 合并后每条结果的shardIndex就是它来自第几个索引
+			TopDocs merged = TopDocs.merge(start, pageSize, results.toArray(new TopDocs[n]));
+			SearchResult result = new SearchResult(merged.totalHits, render(sources, queries, searchers, merged.scoreDocs));
+			SearchMetrics.TOTAL.update(System.nanoTime() - begin);
+			return result;
+		}
+		finally
+		{
+			try
+			{
+				for(int i=0; i<managers.size(); i++)
+				{
+					if(searchers[i] != null) managers.get(i).release(searchers[i]);
+				}
+			}
+			finally
+			{
+				for(Semaphore semaphore : permits)
+				{
+					if(semaphore != null) semaphore.release();
+				}
+			}
+		}
+	}
+
+	/**
+	 * 按来源分组，各个索引同时读取字段、生成摘要，再按合并后的顺序排列
+	 */
+	private List<SearchHit> render(final List<Source> sources, final Query[] queries, final IndexSearcher[] searchers, final ScoreDoc[] page) throws IOException
+	{
+		final SearchHit[] hits = new SearchHit[page.length];
+		List<Callable<Void>> renders = new ArrayList<Callable<Void>>();
+		for(int i=0; i<sources.size(); i++)
+		{
+			final int index = i;
+			final List<Integer> positions = new ArrayList<Integer>();
+			for(int j=0; j<page.length; j++)
+			{
+				if(page[j].shardIndex == index) positions.add(j);
+			}
+			if(positions.isEmpty()) continue;
+			renders.add(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					Source source = sources.get(index);
+					ScoreDoc[] scoreDocs = new ScoreDoc[positions.size()];
+					for(int j=0; j<scoreDocs.length; j++)
+						scoreDocs[j] = page[positions.get(j)];
+					List<SearchHit> rendered = source.searchService.getRenderer().render(searchers[index], queries[index], scoreDocs);
+					for(int j=0; j<scoreDocs.length; j++)
+					{
+						SearchHit hit = rendered.get(j);
+						hits[positions.get(j)] = new SearchHit(hit.getDoc(), hit.getScore(), source.map(hit.getDocument()), hit.getFragment(), source.name);
+					}
+					return null;
+				}
+			});
+		}
+		invokeAll(renders);
+		List<SearchHit> result = new ArrayList<SearchHit>(hits.length);
+		for(SearchHit hit : hits)
+			result.add(hit);
+		return result;
+	}
+
+	/**
+	 * 在线程池里执行所有任务并等待完成
+	 * @throws IOException 任务中出现的错误
+	 */
+	private <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException
+	{
+		try
+		{
+			List<T> results = new ArrayList<T>(tasks.size());
+			for(Future<T> future : executor.invokeAll(tasks))
+				results.add(future.get());
+			return results;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("搜索被中断", e);
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException) throw (IOException)cause;
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if(cause instanceof Error) throw (Error)cause;
+			throw new IOException("搜索时出错", cause);
+		}
+	}
+
+	/**
+	 * 关闭线程池，不会关闭各个SearchService
+	 */
+	@Override
+	public void close()
+	{
+		executor.shutdown();
+	}
+}
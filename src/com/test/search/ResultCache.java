@@ -0,0 +1,198 @@
+package com.test.search;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.search.ReferenceManager;
+
+/**
+ * 搜索结果缓存：按访问顺序淘汰（LRU）的有界缓存，每条结果有存活时间，并统计命中率<br>
+ * 索引刷新后结果可能变了，所以注册为SearcherManager的{@link ReferenceManager.RefreshListener}，
+ * 每次真正打开了新的IndexReader就清空；为了不让刷新前开始的搜索在刷新后把旧结果放进来，
+ * 放入时要带上搜索开始前取得的代数{@link #generation()}，代数变了就不放<br>
+ * 缓存的SearchResult会被多个请求共用，调用者不能修改里面的文档<br>
+ * 线程安全
+ * @author liuxianan
+ */
+public class ResultCache implements ReferenceManager.RefreshListener
+{
+	private final int maxEntries;
+	private final long ttlMillis;
+	private final LinkedHashMap<String, CacheEntry> entries;
+	private volatile long generation = 0;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	private static class CacheEntry
+	{
+		final SearchResult result;
+		final long expireTime;
+
+		CacheEntry(SearchResult result, long expireTime)
+		{
+			this.result = result;
+			this.expireTime = expireTime;
+		}
+	}
+
+	/**
+	 * @param maxEntries 最多缓存多少条结果，超过时淘汰最久没有用过的
+	 * @param ttlMillis 每条结果最多缓存多久，小于等于0表示只在索引刷新时失效
+	 */
+	public ResultCache(final int maxEntries, long ttlMillis)
+	{
+		if(maxEntries < 1) throw new IllegalArgumentException("maxEntries必须大于0：" + maxEntries);
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+		this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest)
+			{
+				if(size() <= maxEntries) return false;
+				evictions.incrementAndGet();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * 当前的代数，每次失效加一，搜索开始前取得，放入结果时传给put()
+	 */
+	public long generation()
+	{
+		return generation;
+	}
+
+	/**
+	 * 获取缓存的结果
+	 * @return 没有或者已经过期时返回null
+	 */
+	public SearchResult get(String key)
+	{
+		synchronized(entries)
+		{
+			CacheEntry entry = entries.get(key);
+			if(entry != null && entry.expireTime > 0 && entry.expireTime <= System.currentTimeMillis())
+			{
+				entries.remove(key);
+				expirations.incrementAndGet();
+				entry = null;
+			}
+			if(entry == null)
+			{
+				misses.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			return entry.result;
+		}
+	}
+
+	/**
+	 * 放入结果
+	 * @param generation 搜索开始前取得的代数，之后如果索引刷新过，结果可能已经过时，不放入
+	 */
+	public void put(String key, SearchResult result, long generation)
+	{
+		long expireTime = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : 0;
+		synchronized(entries)
+		{
+			if(generation != this.generation) return;
+			entries.put(key, new CacheEntry(result, expireTime));
+		}
+	}
+
+	/**
+	 * 清空缓存，之后放入的旧代数的结果都会被丢弃
+	 */
+	public void invalidate()
+	{
+		synchronized(entries)
+		{
+			generation++;
+			entries.clear();
+		}
+		invalidations.incrementAndGet();
+	}
+
+	@Override
+	public void beforeRefresh()
+	{
+	}
+
+	@Override
+	public void afterRefresh(boolean didRefresh)
+	{
+		if(didRefresh) invalidate();
+	}
+
+	public int size()
+	{
+		synchronized(entries)
+		{
+			return entries.size();
+		}
+	}
+
+	public int getMaxEntries()
+	{
+		return maxEntries;
+	}
+
+	public long getHitCount()
+	{
+		return hits.get();
+	}
+
+	public long getMissCount()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * 因为超出容量被淘汰的次数
+	 */
+	public long getEvictionCount()
+	{
+		return evictions.get();
+	}
+
+	/**
+	 * 因为过期被删除的次数
+	 */
+	public long getExpirationCount()
+	{
+		return expirations.get();
+	}
+
+	/**
+	 * 因为索引刷新被清空的次数
+	 */
+	public long getInvalidationCount()
+	{
+		return invalidations.get();
+	}
+
+	/**
+	 * 命中率，还没有请求时为0
+	 */
+	public double getHitRate()
+	{
+		long hits = this.hits.get(), total = hits + misses.get();
+		return total == 0 ? 0 : (double)hits / total;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("ResultCache[size=%d/%d, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d, expirations=%d, invalidations=%d]",
+				size(), maxEntries, getHitCount(), getMissCount(), getHitRate() * 100, getEvictionCount(), getExpirationCount(), getInvalidationCount());
+	}
+}
@@ -0,0 +1,293 @@
+package com.test.search;
+
+import java.io.IOException;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.highlight.Highlighter;
+import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
+import org.apache.lucene.search.highlight.QueryScorer;
+import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
+import org.apache.lucene.search.highlight.SimpleSpanFragmenter;
+import org.apache.lucene.search.postingshighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.postingshighlight.Passage;
+import org.apache.lucene.search.postingshighlight.PassageFormatter;
+import org.apache.lucene.search.postingshighlight.PostingsHighlighter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.test.index.ContentStore;
+
+/**
+ * 把搜索命中的文档号变成{@link SearchHit}：读取要显示的存储字段并生成高亮摘要<br>
+ * 设置了loadFields时只解码这几个字段，其它存储字段（特别是很长的content）直接跳过；
+ * 高亮字段的内容是延迟读取的：先在倒排表里检查这条结果的高亮字段是否包含查询词，
+ * 只有包含的（也就是确实会有摘要的）才读取内容，内容存放在{@link ContentStore}里时从那里读取<br>
+ * 配置完成后线程安全，由{@link SearchService}在每次搜索时调用
+ * @author liuxianan
+ */
+public class ResultRenderer
+{
+	private static final Logger log = LoggerFactory.getLogger(ResultRenderer.class);
+	private static final String PRE_TAG = "<span style=\"backgroud:red\">";
+	private static final String POST_TAG = "</span>";
+
+	private final Analyzer analyzer;
+	private volatile String highlightField = "content";
+	private volatile Set<String> loadFields; // 为null时读取所有存储字段
+	private volatile boolean postingsHighlight = false; // 是否用倒排表里的偏移位置高亮，否则重新分词
+	private volatile ContentStore contentStore; // 不为null时content从这里读取
+
+	/**
+	 * @param analyzer 重新分词高亮时使用的分词器，和建索引时一致
+	 */
+	public ResultRenderer(Analyzer analyzer)
+	{
+		this.analyzer = analyzer;
+	}
+
+	/**
+	 * 设置需要高亮的字段，为null时不高亮，默认为content
+	 */
+	public void setHighlightField(String highlightField)
+	{
+		this.highlightField = highlightField;
+	}
+
+	/**
+	 * 设置每条结果需要读取的存储字段，为null（默认）时读取所有存储字段，高亮字段不需要列出
+	 */
+	public void setLoadFields(String... loadFields)
+	{
+		this.loadFields = loadFields == null ? null : Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(loadFields)));
+	}
+
+	/**
+	 * 设置是否直接用倒排表里的偏移位置高亮，见{@link SearchService#setPostingsHighlight(boolean)}
+	 */
+	public void setPostingsHighlight(boolean postingsHighlight)
+	{
+		this.postingsHighlight = postingsHighlight;
+	}
+
+	/**
+	 * 设置存放正文的ContentStore，见{@link SearchService#setContentStore(ContentStore)}
+	 */
+	public void setContentStore(ContentStore contentStore)
+	{
+		this.contentStore = contentStore;
+	}
+
+	/**
+	 * 读取字段并生成摘要
+	 * @param query 搜索用的查询，高亮时用来确定匹配的词
+	 * @param scoreDocs 需要显示的结果，一般只是一页
+	 */
+	public List<SearchHit> render(IndexSearcher indexSearcher, Query query, ScoreDoc[] scoreDocs) throws IOException
+	{
+		Set<String> loadFields = this.loadFields;
+		ContentStore contentStore = this.contentStore;
+		long start = System.nanoTime();
+		Document[] documents = new Document[scoreDocs.length];
+		for(int i=0; i<scoreDocs.length; i++)
+		{
+			int doc = scoreDocs[i].doc;
+			// 按字段名过滤的StoredFieldVisitor，没有列出的字段直接跳过，不会解码成字符串
+			documents[i] = loadFields == null ? indexSearcher.doc(doc) : indexSearcher.doc(doc, loadFields);
+			if(contentStore != null && (loadFields == null || loadFields.contains(ContentStore.CONTENT_FIELD)))
+				addContent(documents[i], contentStore.read(indexSearcher, doc));
+		}
+		SearchMetrics.LOAD.update(System.nanoTime() - start);
+		start = System.nanoTime();
+		String[] fragments = highlight(indexSearcher, query, scoreDocs, documents);
+		SearchMetrics.HIGHLIGHT.update(System.nanoTime() - start);
+		List<SearchHit> hits = new ArrayList<SearchHit>(scoreDocs.length);
+		for(int i=0; i<scoreDocs.length; i++)
+			hits.add(new SearchHit(scoreDocs[i].doc, scoreDocs[i].score, documents[i], fragments[i]));
+		return hits;
+	}
+
+	private static void addContent(Document document, String content)
+	{
+		if(content != null) document.add(new StoredField(ContentStore.CONTENT_FIELD, content));
+	}
+
+	/**
+	 * 生成摘要，只读取确实包含查询词的结果的高亮字段
+	 * @return 和scoreDocs一一对应，没有摘要的为null
+	 */
+	private String[] highlight(IndexSearcher indexSearcher, Query query, ScoreDoc[] scoreDocs, Document[] documents) throws IOException
+	{
+		String field = highlightField;
+		String[] fragments = new String[scoreDocs.length];
+		if(field == null || scoreDocs.length == 0) return fragments;
+		boolean[] matches = findMatches(indexSearcher, query, field, scoreDocs);
+		String[] values = new String[scoreDocs.length];
+		for(int i=0; i<scoreDocs.length; i++)
+		{
+			if(!matches[i]) continue;
+			values[i] = documents[i].get(field); // 已经读出来的不再读一遍
+			if(values[i] == null) values[i] = loadValue(indexSearcher, field, scoreDocs[i].doc);
+		}
+		if(postingsHighlight && highlightPostings(indexSearcher, query, field, scoreDocs, values, fragments))
+			return fragments;
+		QueryScorer scorer = new QueryScorer(query, field);
+		Highlighter highlighter = new Highlighter(new SimpleHTMLFormatter(PRE_TAG, POST_TAG), scorer);
+		highlighter.setTextFragmenter(new SimpleSpanFragmenter(scorer));
+		for(int i=0; i<scoreDocs.length; i++)
+		{
+			if(values[i] == null) continue;
+			try
+			{
+				fragments[i] = highlighter.getBestFragment(analyzer, field, values[i]);
+			}
+			catch (InvalidTokenOffsetsException e)
+			{
+				log.error("高亮失败：", e);
+			}
+		}
+		return fragments;
+	}
+
+	/**
+	 * 在倒排表里检查每条结果的高亮字段是否包含查询词，只需要查几次词典，不需要读取内容<br>
+	 * 查询里有前缀、通配符这类提取不出具体词的查询时，无法判断，全部当作包含
+	 */
+	private boolean[] findMatches(IndexSearcher indexSearcher, Query query, String field, ScoreDoc[] scoreDocs) throws IOException
+	{
+		boolean[] matches = new boolean[scoreDocs.length];
+		Set<Term> terms = new HashSet<Term>();
+		indexSearcher.createNormalizedWeight(query, false).extractTerms(terms);
+		List<Term> fieldTerms = new ArrayList<Term>();
+		for(Term term : terms)
+		{
+			if(field.equals(term.field())) fieldTerms.add(term);
+		}
+		if(fieldTerms.isEmpty())
+		{
+			Arrays.fill(matches, true);
+			return matches;
+		}
+		List<LeafReaderContext> leaves = indexSearcher.getIndexReader().leaves();
+		PostingsEnum postings = null;
+		for(int i=0; i<scoreDocs.length; i++)
+		{
+			LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(scoreDocs[i].doc, leaves));
+			LeafReader reader = leaf.reader();
+			Terms fieldIndex = reader.terms(field);
+			if(fieldIndex == null) continue;
+			int doc = scoreDocs[i].doc - leaf.docBase;
+			TermsEnum termsEnum = fieldIndex.iterator();
+			for(Term term : fieldTerms)
+			{
+				if(!termsEnum.seekExact(term.bytes())) continue;
+				postings = termsEnum.postings(postings, PostingsEnum.NONE);
+				if(postings.advance(doc) == doc && doc != DocIdSetIterator.NO_MORE_DOCS)
+				{
+					matches[i] = true;
+					break;
+				}
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * 读取一条结果高亮字段的内容，优先从ContentStore读取
+	 */
+	private String loadValue(IndexSearcher indexSearcher, String field, int doc) throws IOException
+	{
+		ContentStore contentStore = this.contentStore;
+		if(contentStore != null && ContentStore.CONTENT_FIELD.equals(field))
+		{
+			String value = contentStore.read(indexSearcher, doc);
+			if(value != null) return value;
+		}
+		return indexSearcher.doc(doc, Collections.singleton(field)).get(field);
+	}
+
+	/**
+	 * 用倒排表里的偏移位置生成摘要，内容用已经读出的values，不再从索引里读一遍
+	 * @return 是否成功，字段没有记录偏移位置时返回false
+	 */
+	private boolean highlightPostings(IndexSearcher indexSearcher, Query query, String field, ScoreDoc[] scoreDocs, String[] values, String[] fragments) throws IOException
+	{
+		int count = 0;
+		for(String value : values)
+		{
+			if(value != null) count++;
+		}
+		if(count == 0) return true;
+		// 只高亮有内容的结果
+		int[] docids = new int[count];
+		int[] index = new int[count];
+		final Map<Integer, String> contents = new HashMap<Integer, String>();
+		for(int i=0, j=0; i<values.length; i++)
+		{
+			if(values[i] == null) continue;
+			docids[j] = scoreDocs[i].doc;
+			index[j++] = i;
+			contents.put(scoreDocs[i].doc, values[i]);
+		}
+		PostingsHighlighter highlighter = new PostingsHighlighter(Integer.MAX_VALUE - 1) // 不截断，存储了多少就高亮多少
+		{
+			@Override
+			protected PassageFormatter getFormatter(String field)
+			{
+				return new DefaultPassageFormatter(PRE_TAG, POST_TAG, "... ", false);
+			}
+
+			@Override
+			protected Passage[] getEmptyHighlight(String fieldName, BreakIterator bi, int maxPassages)
+			{
+				return new Passage[0]; // 和重新分词时一样，没有匹配的内容时没有摘要
+			}
+
+			@Override
+			protected String[][] loadFieldValues(IndexSearcher searcher, String[] fields, int[] docids, int maxLength)
+			{
+				String[][] loaded = new String[fields.length][docids.length];
+				for(int i=0; i<docids.length; i++)
+				{
+					String value = contents.get(docids[i]);
+					loaded[0][i] = value == null ? "" : value;
+				}
+				return loaded;
+			}
+		};
+		try
+		{
+			String[] result = highlighter.highlightFields(new String[]{field}, query, indexSearcher, docids, new int[]{1}).get(field);
+			for(int j=0; j<count; j++)
+				fragments[index[j]] = result[j];
+			return true;
+		}
+		catch (IllegalArgumentException e)
+		{
+			// 旧的索引没有记录偏移位置，重建索引之前先重新分词
+			log.warn("字段{}没有记录偏移位置，改为重新分词高亮：{}", field, e.getMessage());
+			return false;
+		}
+	}
+}
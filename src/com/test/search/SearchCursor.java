@@ -0,0 +1,156 @@
+package com.test.search;
+
+import java.math.BigInteger;
+
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * 翻页游标：把一页最后一条结果的位置（分数或排序字段的值，加上文档号）编码成字符串交给前端，
+ * 下一页原样传回来，用IndexSearcher.searchAfter()从这个位置继续，服务端不需要保存任何状态<br>
+ * 不管翻到第几页，每次都只收集一页的结果，所以越往后翻不会越慢<br>
+ * 格式：排序方式的校验值，后面是每个排序值，最后是文档号，用“.”分隔；排序值带类型前缀：
+ * L是long，I是int，F是float，D是double，S是字符串（十六进制的字节），N是null<br>
+ * 文档号只是同分时区分先后用的，索引刷新后可能会变，最多导致刷新前后的两页之间有少量重复或遗漏；
+ * 段合并后文档号可能超出新索引的范围，这时用{@link #clamp(ScoreDoc, int)}限制到范围内，靠排序值继续翻页
+ * @author liuxianan
+ */
+public final class SearchCursor
+{
+	private static final String SEPARATOR = ".";
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private SearchCursor()
+	{
+	}
+
+	/**
+	 * 编码一页最后一条结果的位置
+	 * @param last 最后一条结果，按字段排序时是FieldDoc
+	 * @param sort 这次搜索的排序方式，为null表示按相关度
+	 */
+	public static String encode(ScoreDoc last, Sort sort)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(Integer.toHexString(signature(sort)));
+		if(sort == null)
+			sb.append(SEPARATOR).append('F').append(Integer.toHexString(Float.floatToIntBits(last.score)));
+		else
+		{
+			for(Object value : ((FieldDoc)last).fields)
+			{
+				sb.append(SEPARATOR);
+				encodeValue(sb, value);
+			}
+		}
+		sb.append(SEPARATOR).append(last.doc);
+		return sb.toString();
+	}
+
+	/**
+	 * 解码游标
+	 * @param sort 这次搜索的排序方式，必须和生成游标时一致
+	 * @return searchAfter()用的位置，按字段排序时是FieldDoc
+	 * @throws IllegalArgumentException 游标格式错误或者排序方式不一致
+	 */
+	public static ScoreDoc decode(String cursor, Sort sort)
+	{
+		String[] parts = cursor.split("\\.", -1);
+		try
+		{
+			if(parts.length < 3) throw new IllegalArgumentException("游标格式错误：" + cursor);
+			if((int)Long.parseLong(parts[0], 16) != signature(sort)) throw new IllegalArgumentException("游标和排序方式不一致：" + cursor);
+			int doc = Integer.parseInt(parts[parts.length - 1]);
+			if(doc < 0) throw new IllegalArgumentException("游标格式错误：" + cursor);
+			if(sort == null)
+			{
+				if(parts.length != 3 || !parts[1].startsWith("F")) throw new IllegalArgumentException("游标格式错误：" + cursor);
+				return new ScoreDoc(doc, Float.intBitsToFloat((int)Long.parseLong(parts[1].substring(1), 16)));
+			}
+			Object[] fields = new Object[parts.length - 2];
+			if(fields.length != sort.getSort().length) throw new IllegalArgumentException("游标和排序方式不一致：" + cursor);
+			for(int i=0; i<fields.length; i++)
+				fields[i] = decodeValue(parts[i + 1]);
+			return new FieldDoc(doc, Float.NaN, fields);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IllegalArgumentException("游标格式错误：" + cursor, e);
+		}
+		catch (StringIndexOutOfBoundsException e)
+		{
+			throw new IllegalArgumentException("游标格式错误：" + cursor, e);
+		}
+	}
+
+	/**
+	 * 把解码出来的位置限制在当前索引的文档号范围内，否则searchAfter()会抛出IllegalArgumentException<br>
+	 * 游标可能是段合并、删除文档之前生成的，文档号超出范围时改成最后一个文档，和它同分的结果算作已经翻过
+	 * @param after decode()返回的位置，会被修改
+	 * @param maxDoc 这次搜索用的IndexReader的maxDoc()
+	 */
+	public static ScoreDoc clamp(ScoreDoc after, int maxDoc)
+	{
+		if(after.doc >= maxDoc) after.doc = maxDoc - 1;
+		return after;
+	}
+
+	/**
+	 * 排序方式的校验值，防止把一种排序的游标用在另一种排序上
+	 */
+	private static int signature(Sort sort)
+	{
+		return sort == null ? 0 : sort.toString().hashCode();
+	}
+
+	private static void encodeValue(StringBuilder sb, Object value)
+	{
+		if(value == null)
+			sb.append('N');
+		else if(value instanceof Long)
+			sb.append('L').append(value);
+		else if(value instanceof Integer)
+			sb.append('I').append(value);
+		else if(value instanceof Float)
+			sb.append('F').append(Integer.toHexString(Float.floatToIntBits((Float)value)));
+		else if(value instanceof Double)
+			sb.append('D').append(Long.toHexString(Double.doubleToLongBits((Double)value)));
+		else if(value instanceof BytesRef)
+		{
+			BytesRef bytes = (BytesRef)value;
+			sb.append('S');
+			for(int i=bytes.offset; i<bytes.offset + bytes.length; i++)
+				sb.append(HEX[(bytes.bytes[i] >> 4) & 0xf]).append(HEX[bytes.bytes[i] & 0xf]);
+		}
+		else
+			throw new IllegalArgumentException("不支持的排序值类型：" + value.getClass().getName());
+	}
+
+	private static Object decodeValue(String part)
+	{
+		String value = part.substring(1);
+		switch(part.charAt(0))
+		{
+			case 'N':
+				return null;
+			case 'L':
+				return Long.valueOf(value);
+			case 'I':
+				return Integer.valueOf(value);
+			case 'F':
+				return Float.intBitsToFloat((int)Long.parseLong(value, 16));
+			case 'D':
+				return Double.longBitsToDouble(new BigInteger(value, 16).longValue());
+			case 'S':
+				if(value.length() % 2 != 0) throw new IllegalArgumentException("游标格式错误：" + part);
+				byte[] bytes = new byte[value.length() / 2];
+				for(int i=0; i<bytes.length; i++)
+					bytes[i] = (byte)Integer.parseInt(value.substring(i * 2, i * 2 + 2), 16);
+				return new BytesRef(bytes);
+			default:
+				throw new IllegalArgumentException("游标格式错误：" + part);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.test.search;
+
+import org.apache.lucene.document.Document;
+
+/**
+ * 一条搜索结果
+ * @author liuxianan
+ */
+public class SearchHit
+{
+	private final int doc;
+	private final float score;
+	private final Document document;
+	private final String fragment;
+	private final String index;
+
+	public SearchHit(int doc, float score, Document document, String fragment)
+	{
+		this(doc, score, document, fragment, null);
+	}
+
+	/**
+	 * @param index 结果来自哪个索引，同时搜索多个索引时使用
+	 */
+	public SearchHit(int doc, float score, Document document, String fragment, String index)
+	{
+		this.doc = doc;
+		this.score = score;
+		this.document = document;
+		this.fragment = fragment;
+		this.index = index;
+	}
+
+	/**
+	 * 获取某个存储字段的值
+	 */
+	public String get(String field)
+	{
+		return document.get(field);
+	}
+
+	/**
+	 * 文档在搜索时所用IndexReader里的编号，刷新之后可能会变
+	 */
+	public int getDoc()
+	{
+		return doc;
+	}
+
+	public float getScore()
+	{
+		return score;
+	}
+
+	public Document getDocument()
+	{
+		return document;
+	}
+
+	/**
+	 * 高亮后的摘要，没有匹配的内容时为null
+	 */
+	public String getFragment()
+	{
+		return fragment;
+	}
+
+	/**
+	 * 结果来自哪个索引，见{@link FederatedSearchService#addIndex(String, SearchService)}，只搜索一个索引时为null
+	 */
+	public String getIndex()
+	{
+		return index;
+	}
+}
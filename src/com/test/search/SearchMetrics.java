@@ -0,0 +1,30 @@
+package com.test.search;
+
+import com.test.metrics.Counter;
+import com.test.metrics.Metrics;
+import com.test.metrics.Timer;
+
+/**
+ * 搜索各个阶段的指标，JMX里和日志里的名字都以search.开头：<br>
+ * parse：把关键字解析成查询；search：在索引里找出前N条结果；
+ * load：读取一页结果的存储字段；highlight：生成一页结果的摘要，包括只为高亮读取的正文；
+ * total：一次搜索从开始到返回，包括命中缓存的<br>
+ * 每个SearchService还有一个search.refreshAge(索引目录@实例)，表示离上次检查刷新过了多少毫秒，也就是搜到的索引最多落后多久，
+ * 远大于刷新间隔时说明刷新卡住了
+ * @author liuxianan
+ */
+final class SearchMetrics
+{
+	static final Timer PARSE = Metrics.timer("search.parse");
+	static final Timer SEARCH = Metrics.timer("search.search");
+	static final Timer LOAD = Metrics.timer("search.load");
+	static final Timer HIGHLIGHT = Metrics.timer("search.highlight");
+	static final Timer TOTAL = Metrics.timer("search.total");
+
+	static final Counter REQUESTS = Metrics.counter("search.requests");
+	static final Counter CACHE_HITS = Metrics.counter("search.cacheHits");
+
+	private SearchMetrics()
+	{
+	}
+}
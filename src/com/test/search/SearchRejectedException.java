@@ -0,0 +1,15 @@
+package com.test.search;
+
+/**
+ * 搜索请求过多时被拒绝：正在执行的搜索已达上限，并且排队等待的也已满或者等待超时
+ * @author liuxianan
+ */
+public class SearchRejectedException extends RuntimeException
+{
+	private static final long serialVersionUID = 1L;
+
+	public SearchRejectedException(String message)
+	{
+		super(message);
+	}
+}
@@ -0,0 +1,55 @@
+package com.test.search;
+
+import java.util.List;
+
+import org.apache.lucene.search.Sort;
+
+/**
+ * 一次搜索的结果
+ * @author liuxianan
+ */
+public class SearchResult
+{
+	private final int totalHits;
+	private final List<SearchHit> hits;
+	private final String nextCursor;
+
+	public SearchResult(int totalHits, List<SearchHit> hits)
+	{
+		this(totalHits, hits, null);
+	}
+
+	/**
+	 * @param nextCursor 下一页的游标，没有下一页时为null
+	 */
+	public SearchResult(int totalHits, List<SearchHit> hits, String nextCursor)
+	{
+		this.totalHits = totalHits;
+		this.hits = hits;
+		this.nextCursor = nextCursor;
+	}
+
+	/**
+	 * 匹配的文档总数
+	 */
+	public int getTotalHits()
+	{
+		return totalHits;
+	}
+
+	/**
+	 * 返回的结果，分页搜索时只有这一页
+	 */
+	public List<SearchHit> getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * 下一页的游标，传给{@link SearchService#searchAfter(String, String, Sort)}获取下一页，没有下一页时为null
+	 */
+	public String getNextCursor()
+	{
+		return nextCursor;
+	}
+}
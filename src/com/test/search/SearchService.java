@@ -0,0 +1,596 @@
+package com.test.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wltea.analyzer.lucene.IKAnalyzer;
+
+import com.test.index.ContentStore;
+import com.test.metrics.Gauge;
+import com.test.metrics.Metrics;
+
+/**
+ * 可以长期使用的搜索服务：每个索引对应一个实例，内部用一个SearcherManager管理IndexReader，
+ * 每次搜索时acquire、搜索完release，后台线程按固定间隔刷新，分词器在多线程之间共享<br>
+ * 这样每次搜索不需要重新打开索引，也能利用上操作系统和Lucene的缓存；分片建成的多个索引可以用{@link ShardSearcherManager}当成一个索引搜索<br>
+ * 并发模式：设置searchThreads后一次搜索的多个段会在线程池里并行搜索；
+ * 设置maxConcurrent后同时执行的搜索数量受限，超出的最多排队maxQueued个、最多等待queueTimeoutMillis，
+ * 再多的直接抛出{@link SearchRejectedException}，避免流量突增时线程越积越多导致所有请求都变慢<br>
+ * 可以开启结果缓存（{@link #setResultCache(int, long)}），相同的关键字、排序和页码直接返回上次的结果，索引刷新后自动失效<br>
+ * 每次搜索各个阶段的耗时记录在{@link SearchMetrics}里<br>
+ * 线程安全，使用完后需要调用close()
+ * @author liuxianan
+ */
+public class SearchService implements Closeable
+{
+	private static final Logger log = LoggerFactory.getLogger(SearchService.class);
+
+	private final String[] indexPaths; // 多于一个时是分片建成的索引
+	private final String[] fields;
+	private final BooleanClause.Occur[] clauses;
+	private final String cacheKeyPrefix; // 缓存的key里表示搜索字段和与或关系的部分
+	private volatile ResultCache resultCache; // 为null表示不缓存
+	private final Analyzer analyzer = new IKAnalyzer(true); // 分词器是线程安全的，所有搜索共用一个
+	private final ResultRenderer renderer = new ResultRenderer(analyzer); // 读取字段并生成摘要
+	private long refreshMillis = 1000;
+	private int pageSize = 20; // searchAfter()默认每页的条数
+	private int maxWindow = 10000; // 按起始位置分页时最多能翻到第几条，再往后要用游标
+	private int searchThreads = 0; // 单次搜索内并行搜索各个段的线程数，0表示不并行
+	private int maxQueued = 0; // 同时执行的搜索数达到上限后最多排队等待的搜索数
+	private long queueTimeoutMillis = 1000; // 排队的最长等待时间
+	private volatile Semaphore permits; // 同时执行的搜索数的许可，为null表示不限制
+	private final AtomicInteger queued = new AtomicInteger();
+	private ExecutorService searchExecutor;
+	private Directory[] directories;
+	private volatile ReferenceManager<IndexSearcher> searcherManager;
+	private ScheduledExecutorService scheduler;
+	private boolean ownManager; // SearcherManager是否是自己创建的
+	private final RefreshAge refreshAge = new RefreshAge(); // 离上次检查刷新过了多久，见SearchMetrics
+
+	/**
+	 * 搜索某个目录下的索引，第一次搜索时才打开
+	 * @param indexPath 索引所在的目录
+	 * @param fields 要搜索的字段
+	 * @param clauses 字段之间的与或非关系，有几个fields就必须有几个clauses
+	 */
+	public SearchService(String indexPath, String[] fields, BooleanClause.Occur[] clauses)
+	{
+		this(new String[]{indexPath}, fields, clauses);
+	}
+
+	/**
+	 * 把分片建成的多个索引当成一个索引搜索，第一次搜索时才打开
+	 * @param indexPaths 每个分片所在的目录
+	 */
+	public SearchService(String[] indexPaths, String[] fields, BooleanClause.Occur[] clauses)
+	{
+		if(fields.length != clauses.length) throw new IllegalArgumentException("fields和clauses的个数必须一致");
+		this.indexPaths = indexPaths;
+		this.fields = fields;
+		this.clauses = clauses;
+		this.cacheKeyPrefix = Arrays.toString(fields) + Arrays.toString(clauses);
+	}
+
+	/**
+	 * 使用外部的SearcherManager，比如实时索引时从IndexWriter打开的，由外部负责刷新和关闭
+	 */
+	public SearchService(ReferenceManager<IndexSearcher> searcherManager, String[] fields, BooleanClause.Occur[] clauses)
+	{
+		this((String[])null, fields, clauses);
+		this.searcherManager = searcherManager;
+		searcherManager.addListener(refreshAge);
+		Metrics.gauge(refreshAge.name(), refreshAge);
+	}
+
+	/**
+	 * 设置需要高亮的字段，为null时不高亮，默认为content
+	 */
+	public void setHighlightField(String highlightField)
+	{
+		renderer.setHighlightField(highlightField);
+		invalidateCache();
+	}
+
+	/**
+	 * 设置每条结果需要读取的存储字段，如只显示标题和地址时设置为"title", "url"，其它存储字段不会被解码；
+	 * 为null（默认）时读取所有存储字段。高亮字段不需要列出，只有确实有摘要的结果才会读取它的内容
+	 */
+	public void setLoadFields(String... loadFields)
+	{
+		renderer.setLoadFields(loadFields);
+		invalidateCache();
+	}
+
+	/**
+	 * 设置是否直接用倒排表里的偏移位置高亮，默认否，即对每条结果的存储内容重新分词，文档越长越慢<br>
+	 * 开启后高亮字段需要记录偏移位置（如{@link com.test.index.FileDocumentBuilder#setIndexOffsets(boolean)}），
+	 * 这样高亮的耗时只和匹配的次数有关；索引里的字段没有记录偏移位置时自动退回到重新分词
+	 */
+	public void setPostingsHighlight(boolean postingsHighlight)
+	{
+		renderer.setPostingsHighlight(postingsHighlight);
+		invalidateCache();
+	}
+
+	/**
+	 * 设置存放正文的ContentStore，和建索引时用的是同一个文件（如{@link com.test.index.FileDocumentBuilder#setContentStore(ContentStore)}）；
+	 * 设置后搜索结果的content从这里读取，放进结果的文档里，文档没有记录位置时仍然从索引里读取
+	 */
+	public void setContentStore(ContentStore contentStore)
+	{
+		renderer.setContentStore(contentStore);
+		invalidateCache();
+	}
+
+	/**
+	 * 设置用游标翻页时默认每页的条数，默认20
+	 */
+	public void setPageSize(int pageSize)
+	{
+		if(pageSize < 1 || pageSize > maxWindow) throw new IllegalArgumentException("pageSize必须在1到maxWindow之间：" + pageSize);
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * 设置按起始位置分页时最多能翻到第几条（start + pageSize的上限），默认10000<br>
+	 * 按起始位置翻到第n条需要收集前n条结果，越往后越慢、越占内存，超过上限的直接拒绝，
+	 * 深度翻页用{@link #searchAfter(String, String, Sort)}，每页的开销都和第一页一样
+	 */
+	public void setMaxWindow(int maxWindow)
+	{
+		if(maxWindow < 1) throw new IllegalArgumentException("maxWindow必须大于0：" + maxWindow);
+		this.maxWindow = maxWindow;
+	}
+
+	/**
+	 * 开启结果缓存：按关键字（去掉首尾和重复的空白）、排序方式和页码（或游标）缓存这一页的结果，
+	 * 热门的关键字不需要每次重新搜索；每次刷新出新的IndexReader时整个缓存失效，所以不会返回过时的结果
+	 * @param maxEntries 最多缓存多少页结果，超过时淘汰最久没有用过的；小于等于0表示关闭缓存
+	 * @param ttlMillis 每页结果最多缓存多久，小于等于0表示只在索引刷新时失效
+	 */
+	public synchronized void setResultCache(int maxEntries, long ttlMillis)
+	{
+		if(resultCache != null && searcherManager != null) searcherManager.removeListener(resultCache);
+		resultCache = maxEntries > 0 ? new ResultCache(maxEntries, ttlMillis) : null;
+		if(resultCache != null && searcherManager != null) searcherManager.addListener(resultCache);
+	}
+
+	/**
+	 * 结果缓存，用于查看命中率等统计，没有开启时返回null
+	 */
+	public ResultCache getResultCache()
+	{
+		return resultCache;
+	}
+
+	/**
+	 * 影响结果内容的设置改变后，已经缓存的结果都不能再用
+	 */
+	private void invalidateCache()
+	{
+		ResultCache cache = resultCache;
+		if(cache != null) cache.invalidate();
+	}
+
+	/**
+	 * 设置后台刷新IndexReader的间隔，需在第一次搜索之前调用
+	 */
+	public void setRefreshMillis(long refreshMillis)
+	{
+		this.refreshMillis = refreshMillis;
+	}
+
+	/**
+	 * 设置单次搜索内并行搜索各个段的线程数，0表示不并行，需在第一次搜索之前调用，使用外部SearcherManager时无效
+	 */
+	public void setSearchThreads(int searchThreads)
+	{
+		this.searchThreads = searchThreads;
+	}
+
+	/**
+	 * 限制同时执行的搜索数，需在第一次搜索之前调用
+	 * @param maxConcurrent 同时执行的搜索数上限，0表示不限制
+	 * @param maxQueued 达到上限后最多排队等待的搜索数，再多的直接拒绝
+	 * @param queueTimeoutMillis 排队的最长等待时间，超时也拒绝
+	 */
+	public void setAdmissionLimit(int maxConcurrent, int maxQueued, long queueTimeoutMillis)
+	{
+		this.maxQueued = maxQueued;
+		this.queueTimeoutMillis = queueTimeoutMillis;
+		this.permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+	}
+
+	/**
+	 * 打开索引并启动后台刷新，第一次搜索时会自动调用
+	 */
+	public synchronized void open() throws IOException
+	{
+		if(searcherManager != null) return;
+		directories = new Directory[indexPaths.length];
+		for(int i=0; i<indexPaths.length; i++)
+			directories[i] = FSDirectory.open(FileSystems.getDefault().getPath(indexPaths[i]));
+		SearcherFactory searcherFactory = null;
+		if(searchThreads > 0)
+		{
+			searchExecutor = Executors.newFixedThreadPool(searchThreads, new DaemonThreadFactory("search-worker"));
+			searcherFactory = new SearcherFactory()
+			{
+				@Override
+				public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException
+				{
+					return new IndexSearcher(reader, searchExecutor);
+				}
+			};
+		}
+		if(directories.length == 1)
+			searcherManager = new SearcherManager(directories[0], searcherFactory);
+		else
+			searcherManager = new ShardSearcherManager(directories, searcherFactory);
+		if(resultCache != null) searcherManager.addListener(resultCache);
+		searcherManager.addListener(refreshAge);
+		Metrics.gauge(refreshAge.name(), refreshAge);
+		ownManager = true;
+		scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("search-refresh"));
+		scheduler.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					searcherManager.maybeRefresh();
+				}
+				catch (Exception e)
+				{
+					log.error("刷新索引失败：", e);
+				}
+			}
+		}, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+		log.info("已打开索引：{}", indexPaths.length == 1 ? indexPaths[0] : Arrays.toString(indexPaths));
+	}
+
+	/**
+	 * 立即刷新，使刚提交的索引马上能被搜到
+	 */
+	public void refresh() throws IOException
+	{
+		getSearcherManager().maybeRefreshBlocking();
+	}
+
+	/**
+	 * 搜索
+	 * @param keyWord 关键字，可以包含空格，比如"上海 中国"
+	 * @param topN 最多返回多少条结果
+	 */
+	public SearchResult search(String keyWord, int topN) throws IOException, ParseException
+	{
+		return search(keyWord, topN, null);
+	}
+
+	/**
+	 * 搜索并按指定的方式排序，排序字段需要带DocValues，如{@link com.test.index.IndexSchema#sortField(String, boolean)}创建的updateTime倒序
+	 * @param keyWord 关键字，可以包含空格，比如"上海 中国"
+	 * @param topN 最多返回多少条结果
+	 * @param sort 排序方式，为null时按相关度排序
+	 */
+	public SearchResult search(String keyWord, int topN, Sort sort) throws IOException, ParseException
+	{
+		return search(keyWord, 0, topN, sort);
+	}
+
+	/**
+	 * 分页搜索，只读取和高亮这一页的结果，比如第一页只需要处理pageSize条而不是全部topN条<br>
+	 * 需要收集前start + pageSize条结果，不能超过maxWindow，更深的翻页用{@link #searchAfter(String, String, Sort)}
+	 * @param keyWord 关键字，可以包含空格，比如"上海 中国"
+	 * @param start 从第几条结果开始，从0开始
+	 * @param pageSize 每页的条数
+	 * @param sort 排序方式，为null时按相关度排序
+	 * @throws IllegalArgumentException start + pageSize超过了maxWindow
+	 */
+	public SearchResult search(String keyWord, int start, int pageSize, Sort sort) throws IOException, ParseException
+	{
+		if(start < 0) throw new IllegalArgumentException("start不能小于0：" + start);
+		if(pageSize < 1) throw new IllegalArgumentException("pageSize必须大于0：" + pageSize);
+		if((long)start + pageSize > maxWindow)
+			throw new IllegalArgumentException("超过了最大翻页范围" + maxWindow + "，请改用游标翻页：" + start + "+" + pageSize);
+		return execute(keyWord, null, start, pageSize, sort);
+	}
+
+	/**
+	 * 用游标翻页，每页的条数为pageSize
+	 * @see #searchAfter(String, String, int, Sort)
+	 */
+	public SearchResult searchAfter(String keyWord, String cursor, Sort sort) throws IOException, ParseException
+	{
+		return searchAfter(keyWord, cursor, pageSize, sort);
+	}
+
+	/**
+	 * 用游标翻页：从上一页最后一条结果之后继续，只收集这一页的结果，翻到多深开销都和第一页一样；服务端不保存状态
+	 * @param keyWord 关键字，每一页必须相同
+	 * @param cursor 上一页结果的{@link SearchResult#getNextCursor()}，为null时返回第一页
+	 * @param pageSize 每页的条数，不能超过maxWindow
+	 * @param sort 排序方式，每一页必须相同，为null时按相关度排序
+	 * @throws IllegalArgumentException 游标格式错误或者和排序方式不一致
+	 */
+	public SearchResult searchAfter(String keyWord, String cursor, int pageSize, Sort sort) throws IOException, ParseException
+	{
+		if(pageSize < 1 || pageSize > maxWindow) throw new IllegalArgumentException("pageSize必须在1到maxWindow之间：" + pageSize);
+		return execute(keyWord, cursor, 0, pageSize, sort);
+	}
+
+	/**
+	 * 执行搜索并生成这一页的结果，开启缓存时先查缓存
+	 * @param cursor 从游标表示的结果之后开始，为null时从头开始
+	 * @param start cursor为null时跳过的条数
+	 */
+	private SearchResult execute(String keyWord, String cursor, int start, int pageSize, Sort sort) throws IOException, ParseException
+	{
+		long begin = System.nanoTime();
+		SearchMetrics.REQUESTS.inc();
+		ScoreDoc after = cursor == null ? null : SearchCursor.decode(cursor, sort);
+		ResultCache cache = resultCache;
+		String cacheKey = null;
+		long generation = 0;
+		if(cache != null)
+		{
+			cacheKey = cacheKey(keyWord, cursor, start, pageSize, sort);
+			SearchResult cached = cache.get(cacheKey);
+			if(cached != null)
+			{
+				SearchMetrics.CACHE_HITS.inc();
+				SearchMetrics.TOTAL.update(System.nanoTime() - begin);
+				return cached;
+			}
+			generation = cache.generation(); // 必须在acquire()之前取得，见ResultCache
+		}
+		Query query = parse(keyWord);
+		ReferenceManager<IndexSearcher> manager = getSearcherManager();
+		Semaphore permits = this.permits;
+		if(permits != null) admit(permits);
+		IndexSearcher indexSearcher = null;
+		try
+		{
+			indexSearcher = manager.acquire();
+			if(after != null) SearchCursor.clamp(after, indexSearcher.getIndexReader().maxDoc());
+			int topN = start + pageSize;
+			TopDocs topDocs;
+			long searchStart = System.nanoTime();
+			// 按字段排序时仍然计算相关度，结果里的分数才有意义
+			if(sort == null)
+				topDocs = indexSearcher.searchAfter(after, query, topN);
+			else
+				topDocs = indexSearcher.searchAfter(after, query, topN, sort, true, false);
+			SearchMetrics.SEARCH.update(System.nanoTime() - searchStart);
+			ScoreDoc[] page = Arrays.copyOfRange(topDocs.scoreDocs, Math.min(start, topDocs.scoreDocs.length), topDocs.scoreDocs.length);
+			// 这一页满了才可能有下一页
+			String nextCursor = page.length == pageSize ? SearchCursor.encode(page[page.length - 1], sort) : null;
+			SearchResult result = new SearchResult(topDocs.totalHits, renderer.render(indexSearcher, query, page), nextCursor);
+			if(cache != null) cache.put(cacheKey, result, generation);
+			SearchMetrics.TOTAL.update(System.nanoTime() - begin);
+			return result;
+		}
+		finally
+		{
+			try
+			{
+				if(indexSearcher != null) manager.release(indexSearcher);
+			}
+			finally
+			{
+				if(permits != null) permits.release();
+			}
+		}
+	}
+
+	/**
+	 * 缓存的key：搜索字段、去掉多余空白的关键字、翻页位置和排序方式
+	 */
+	private String cacheKey(String keyWord, String cursor, int start, int pageSize, Sort sort)
+	{
+		StringBuilder sb = new StringBuilder(cacheKeyPrefix);
+		sb.append('\n').append(keyWord.trim().replaceAll("\\s+", " "));
+		sb.append('\n').append(cursor == null ? Integer.toString(start) : cursor);
+		sb.append('\n').append(pageSize);
+		sb.append('\n').append(sort);
+		return sb.toString();
+	}
+
+	/**
+	 * 按这个索引的并发限制获取一个许可，{@link FederatedSearchService}搜索这个索引时也受同样的限制
+	 * @return 搜索完后需要release()的许可，不限制时为null
+	 * @throws SearchRejectedException 排队已满或者等待超时
+	 */
+	Semaphore admit()
+	{
+		Semaphore permits = this.permits;
+		if(permits != null) admit(permits);
+		return permits;
+	}
+
+	/**
+	 * 按起始位置分页时最多能翻到第几条
+	 */
+	int getMaxWindow()
+	{
+		return maxWindow;
+	}
+
+	/**
+	 * 获取执行搜索的许可，达到上限时排队，排队已满或者等待超时则拒绝
+	 */
+	private void admit(Semaphore permits)
+	{
+		if(permits.tryAcquire()) return;
+		if(queued.incrementAndGet() > maxQueued)
+		{
+			queued.decrementAndGet();
+			throw new SearchRejectedException("搜索请求过多，排队已满");
+		}
+		try
+		{
+			if(!permits.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS))
+				throw new SearchRejectedException("搜索请求过多，排队超时");
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SearchRejectedException("等待搜索时被中断");
+		}
+		finally
+		{
+			queued.decrementAndGet();
+		}
+	}
+
+	/**
+	 * 把关键字解析成这个索引的查询
+	 */
+	Query parse(String keyWord) throws ParseException
+	{
+		long start = System.nanoTime();
+		// MultiFieldQueryParser表示多个域解析， 同时可以解析含空格的字符串
+		Query query = MultiFieldQueryParser.parse(keyWord, fields, clauses, analyzer);
+		SearchMetrics.PARSE.update(System.nanoTime() - start);
+		return query;
+	}
+
+	/**
+	 * 读取字段并生成摘要的对象，{@link FederatedSearchService}合并多个索引的结果后用它生成这个索引的那部分结果
+	 */
+	ResultRenderer getRenderer()
+	{
+		return renderer;
+	}
+
+	ReferenceManager<IndexSearcher> getSearcherManager() throws IOException
+	{
+		ReferenceManager<IndexSearcher> manager = searcherManager;
+		if(manager == null)
+		{
+			open();
+			manager = searcherManager;
+		}
+		return manager;
+	}
+
+	/**
+	 * 关闭后台刷新和索引，使用外部SearcherManager时不会关闭它，分词器也留给调用者继续解析查询
+	 */
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if(scheduler != null)
+		{
+			// 不能中断正在执行的刷新，Lucene的IO被中断会抛出ThreadInterruptedException，还会关掉NIOFSDirectory的文件通道
+			scheduler.shutdown();
+			try
+			{
+				if(!scheduler.awaitTermination(60, TimeUnit.SECONDS))
+					log.warn("等待刷新任务结束超时");
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			scheduler = null;
+		}
+		if(searchExecutor != null) searchExecutor.shutdown();
+		if(resultCache != null && searcherManager != null) searcherManager.removeListener(resultCache);
+		if(searcherManager != null)
+		{
+			searcherManager.removeListener(refreshAge);
+			Metrics.removeGauge(refreshAge.name());
+		}
+		if(ownManager)
+		{
+			searcherManager.close();
+			IOUtils.close(directories);
+			searcherManager = null;
+			ownManager = false;
+			analyzer.close();
+		}
+	}
+
+	/**
+	 * 记录最后一次检查刷新的时间，没有新的提交时也算，这样读到的值就是搜到的索引最多落后多久
+	 */
+	private class RefreshAge implements ReferenceManager.RefreshListener, Gauge
+	{
+		private volatile long lastRefresh = System.currentTimeMillis();
+
+		/**
+		 * 同一个索引可能有多个SearchService（比如单独搜索的和FederatedSearchService里的），名字里带上实例，
+		 * 否则后注册的会替换掉先注册的，关闭其中一个时也会把另一个的注销掉
+		 */
+		String name()
+		{
+			String index = indexPaths == null ? "external" : Arrays.toString(indexPaths);
+			return "search.refreshAge(" + index + "@" + Integer.toHexString(System.identityHashCode(SearchService.this)) + ")";
+		}
+
+		@Override
+		public void beforeRefresh()
+		{
+		}
+
+		@Override
+		public void afterRefresh(boolean didRefresh)
+		{
+			lastRefresh = System.currentTimeMillis();
+		}
+
+		@Override
+		public long getValue()
+		{
+			return System.currentTimeMillis() - lastRefresh;
+		}
+	}
+
+	static class DaemonThreadFactory implements ThreadFactory
+	{
+		private final String name;
+		private final AtomicInteger number = new AtomicInteger();
+
+		public DaemonThreadFactory(String name)
+		{
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread thread = new Thread(r, name + "-" + number.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package com.test.search;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * 把分片建成的多个索引当成一个索引搜索的SearcherManager：每个分片一个DirectoryReader，合成一个MultiReader，
+ * 词频等统计是所有分片合在一起算的，所以打分和排序与合并成一个索引时一致<br>
+ * 刷新时只重新打开有变化的分片，没变的分片继续共用原来的DirectoryReader<br>
+ * 用法和SearcherManager一样：acquire()、release()、maybeRefresh()，用完后close()，目录由调用者负责关闭
+ * @author liuxianan
+ */
+public class ShardSearcherManager extends ReferenceManager<IndexSearcher>
+{
+	private final SearcherFactory searcherFactory;
+
+	/**
+	 * @param directories 每个分片的索引目录
+	 * @param searcherFactory 创建IndexSearcher的方式，为null时使用默认的
+	 */
+	public ShardSearcherManager(Directory[] directories, SearcherFactory searcherFactory) throws IOException
+	{
+		if(directories.length == 0) throw new IllegalArgumentException("至少需要一个分片");
+		this.searcherFactory = searcherFactory == null ? new SearcherFactory() : searcherFactory;
+		DirectoryReader[] shards = new DirectoryReader[directories.length];
+		try
+		{
+			for(int i=0; i<directories.length; i++)
+				shards[i] = DirectoryReader.open(directories[i]);
+			current = newSearcher(shards, null);
+		}
+		finally
+		{
+			// 成功时MultiReader已经持有了每个分片的引用，失败时这里就把打开的都关掉
+			decRefAll(shards, null);
+		}
+	}
+
+	@Override
+	protected void decRef(IndexSearcher reference) throws IOException
+	{
+		reference.getIndexReader().decRef();
+	}
+
+	@Override
+	protected IndexSearcher refreshIfNeeded(IndexSearcher referenceToRefresh) throws IOException
+	{
+		DirectoryReader[] old = ((ShardReader)referenceToRefresh.getIndexReader()).shards;
+		DirectoryReader[] shards = new DirectoryReader[old.length];
+		try
+		{
+			boolean changed = false;
+			for(int i=0; i<old.length; i++)
+			{
+				shards[i] = DirectoryReader.openIfChanged(old[i]);
+				if(shards[i] == null)
+					shards[i] = old[i];
+				else
+					changed = true;
+			}
+			return changed ? newSearcher(shards, referenceToRefresh.getIndexReader()) : null;
+		}
+		finally
+		{
+			decRefAll(shards, old);
+		}
+	}
+
+	@Override
+	protected boolean tryIncRef(IndexSearcher reference)
+	{
+		return reference.getIndexReader().tryIncRef();
+	}
+
+	@Override
+	protected int getRefCount(IndexSearcher reference)
+	{
+		return reference.getIndexReader().getRefCount();
+	}
+
+	private IndexSearcher newSearcher(DirectoryReader[] shards, IndexReader previousReader) throws IOException
+	{
+		return SearcherManager.getSearcher(searcherFactory, new ShardReader(shards), previousReader);
+	}
+
+	/**
+	 * 释放这次新打开的分片的引用，old里原有的不动
+	 */
+	private static void decRefAll(DirectoryReader[] shards, DirectoryReader[] old) throws IOException
+	{
+		Throwable error = null;
+		for(int i=0; i<shards.length; i++)
+		{
+			if(shards[i] == null || (old != null && shards[i] == old[i])) continue;
+			try
+			{
+				shards[i].decRef();
+			}
+			catch (Throwable t)
+			{
+				if(error == null) error = t;
+			}
+		}
+		if(error != null) IOUtils.reThrow(error);
+	}
+
+	/**
+	 * 记住每个分片的DirectoryReader，刷新时要用；MultiReader会增加每个分片的引用计数，自己关闭时再减掉
+	 */
+	private static class ShardReader extends MultiReader
+	{
+		private final DirectoryReader[] shards;
+
+		public ShardReader(DirectoryReader[] shards) throws IOException
+		{
+			super(shards, false);
+			this.shards = shards.clone();
+		}
+	}
+}
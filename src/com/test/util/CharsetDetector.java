@@ -0,0 +1,91 @@
+package com.test.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * 简单的文件编码探测，只区分我们实际会遇到的几种：<br>
+ * 1、有BOM的：UTF-8、UTF-16LE、UTF-16BE<br>
+ * 2、没有BOM的：文件开头一段能按UTF-8正确解码的认为是UTF-8（纯ASCII也算），否则认为是GBK
+ * @author liuxianan
+ */
+public class CharsetDetector
+{
+	public static final Charset UTF_8 = Charset.forName("UTF-8");
+	public static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+	public static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+	public static final Charset GBK = Charset.forName("GBK");
+	/** 探测时最多检查的字节数 */
+	public static final int SAMPLE_SIZE = 8 * 1024;
+
+	private static final ThreadLocal<CharsetDecoder> utf8Decoder = new ThreadLocal<CharsetDecoder>()
+	{
+		@Override
+		protected CharsetDecoder initialValue()
+		{
+			return UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT);
+		}
+	};
+	private static final ThreadLocal<CharBuffer> sampleChars = new ThreadLocal<CharBuffer>()
+	{
+		@Override
+		protected CharBuffer initialValue()
+		{
+			return CharBuffer.allocate(SAMPLE_SIZE);
+		}
+	};
+
+	/**
+	 * 探测编码，不会改变sample的position
+	 * @param sample 文件开头的一段内容
+	 * @param endOfFile sample是否已经包含了整个文件，为false时末尾被截断的半个字符不算错误
+	 * @return 探测到的编码
+	 */
+	public static Charset detect(ByteBuffer sample, boolean endOfFile)
+	{
+		int bom = bomLength(sample);
+		if(bom > 0) return bomCharset(sample);
+		ByteBuffer in = sample.duplicate();
+		if(in.remaining() > SAMPLE_SIZE) in.limit(in.position() + SAMPLE_SIZE);
+		boolean truncated = !endOfFile || in.limit() < sample.limit();
+		CharsetDecoder decoder = utf8Decoder.get().reset();
+		CharBuffer out = sampleChars.get();
+		out.clear();
+		CoderResult result = decoder.decode(in, out, !truncated);
+		if(result.isError()) return GBK;
+		// 截断处剩下的不完整字符不超过3个字节
+		if(result.isUnderflow() && (!truncated || in.remaining() < 4)) return UTF_8;
+		return GBK;
+	}
+
+	/**
+	 * 获取BOM的长度，没有BOM时返回0，不会改变buffer的position
+	 */
+	public static int bomLength(ByteBuffer buffer)
+	{
+		int p = buffer.position();
+		int n = buffer.remaining();
+		if(n >= 3 && (buffer.get(p) & 0xFF) == 0xEF && (buffer.get(p+1) & 0xFF) == 0xBB && (buffer.get(p+2) & 0xFF) == 0xBF)
+			return 3;
+		if(n >= 2 && (buffer.get(p) & 0xFF) == 0xFF && (buffer.get(p+1) & 0xFF) == 0xFE)
+			return 2;
+		if(n >= 2 && (buffer.get(p) & 0xFF) == 0xFE && (buffer.get(p+1) & 0xFF) == 0xFF)
+			return 2;
+		return 0;
+	}
+
+	/**
+	 * BOM表示的编码，调用前需要确认bomLength()大于0，不会改变buffer的position
+	 */
+	public static Charset bomCharset(ByteBuffer buffer)
+	{
+		int first = buffer.get(buffer.position()) & 0xFF;
+		if(first == 0xEF) return UTF_8;
+		if(first == 0xFF) return UTF_16LE;
+		return UTF_16BE;
+	}
+}
@@ -0,0 +1,473 @@
+package com.test.util;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 轻量级的数据库连接池，不依赖第三方库，主要功能：<br>
+ * 1、最小/最大连接数：最多同时借出maxSize个连接，后台线程保持至少minSize个连接<br>
+ * 2、获取超时：连接都被借出时最多等待acquireTimeoutMillis，超时抛出SQLException<br>
+ * 3、连接校验：空闲超过validationIdleMillis的连接借出前先用isValid()检查，失效的直接丢弃<br>
+ * 4、空闲回收：空闲超过maxIdleMillis的连接由后台线程关闭，但保留minSize个<br>
+ * 5、语句缓存：每个连接缓存最近使用的statementCacheSize条PreparedStatement，同一条SQL不用每次都重新预编译<br>
+ * 空闲连接后进先出，常用的连接一直保持活跃，不常用的排在后面被回收<br>
+ * 线程安全，但借出的{@link PooledConnection}同一时间只能在一个线程里使用，用完后调用它的close()归还<br>
+ * 配置需在第一次acquire()之前设置好，使用完后调用close()关闭所有连接
+ * @author liuxianan
+ */
+public class ConnectionPool implements Closeable
+{
+	private static final Logger log = LoggerFactory.getLogger(ConnectionPool.class);
+
+	private final String url;
+	private final String user;
+	private final String password;
+	private int minSize = 1;
+	private int maxSize = 10;
+	private long acquireTimeoutMillis = 10000;
+	private long maxIdleMillis = 10 * 60 * 1000;
+	private long validationIdleMillis = 5000;
+	private int validationTimeoutSeconds = 2;
+	private int statementCacheSize = 32;
+
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>(); // 头部是最近归还的
+	private final AtomicInteger total = new AtomicInteger(); // 已创建的连接数，包括借出的和空闲的
+	private Semaphore permits; // 可以借出的连接数
+	private ScheduledExecutorService evictor;
+	private volatile boolean closed = false;
+
+	/**
+	 * @param database 数据库种类，可以是mysql、orcal，用于加载驱动
+	 * @param url 数据库连接的URL
+	 * @param user 数据库连接的用户名
+	 * @param password 数据库连接的密码
+	 */
+	public ConnectionPool(String database, String url, String user, String password)
+	{
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		try
+		{
+			if("mysql".equals(database))
+				Class.forName("com.mysql.jdbc.Driver");
+			else if("orcal".equals(database))
+				Class.forName("oracle.jdbc.driver.OracleDriver");
+		}
+		catch (ClassNotFoundException e)
+		{
+			log.error("加载数据库驱动失败！", e);
+		}
+	}
+
+	/**
+	 * 设置最少保持的连接数，默认1
+	 */
+	public void setMinSize(int minSize)
+	{
+		this.minSize = minSize;
+	}
+
+	/**
+	 * 设置最多同时借出的连接数，默认10
+	 */
+	public void setMaxSize(int maxSize)
+	{
+		if(maxSize < 1) throw new IllegalArgumentException("maxSize必须大于0：" + maxSize);
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * 设置获取连接的最长等待时间，默认10秒
+	 */
+	public void setAcquireTimeoutMillis(long acquireTimeoutMillis)
+	{
+		this.acquireTimeoutMillis = acquireTimeoutMillis;
+	}
+
+	/**
+	 * 设置空闲连接的最长保留时间，超过的会被关闭，默认10分钟
+	 */
+	public void setMaxIdleMillis(long maxIdleMillis)
+	{
+		this.maxIdleMillis = maxIdleMillis;
+	}
+
+	/**
+	 * 设置连接校验：空闲超过validationIdleMillis的连接借出前用isValid()检查，默认空闲5秒以上才检查，0表示每次都检查
+	 * @param validationIdleMillis 空闲多久之后需要检查
+	 * @param validationTimeoutSeconds isValid()的超时时间，默认2秒
+	 */
+	public void setValidation(long validationIdleMillis, int validationTimeoutSeconds)
+	{
+		this.validationIdleMillis = validationIdleMillis;
+		this.validationTimeoutSeconds = validationTimeoutSeconds;
+	}
+
+	/**
+	 * 设置每个连接缓存的PreparedStatement数量，默认32，0表示不缓存
+	 */
+	public void setStatementCacheSize(int statementCacheSize)
+	{
+		this.statementCacheSize = statementCacheSize;
+	}
+
+	/**
+	 * 借出一个连接，都被借出时等待，用完后必须调用它的close()归还
+	 * @throws SQLException 等待超时、连接池已关闭或者创建连接失败
+	 */
+	public PooledConnection acquire() throws SQLException
+	{
+		Semaphore permits = start();
+		try
+		{
+			if(!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS))
+				throw new SQLException("获取数据库连接超时，已借出" + maxSize + "个连接");
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SQLException("等待数据库连接时被中断");
+		}
+		try
+		{
+			while(true)
+			{
+				PooledConnection pooled = idle.pollFirst();
+				if(pooled == null)
+				{
+					int n = total.get();
+					if(n < maxSize)
+					{
+						if(total.compareAndSet(n, n + 1)) return create();
+						continue;
+					}
+					// 连接数已满说明后台线程正在补充连接，等它放进来
+					pooled = idle.pollFirst(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+					if(pooled == null) throw new SQLException("获取数据库连接超时");
+				}
+				if(validate(pooled))
+				{
+					pooled.released = false;
+					return pooled;
+				}
+				discard(pooled);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			permits.release();
+			Thread.currentThread().interrupt();
+			throw new SQLException("等待数据库连接时被中断");
+		}
+		catch (SQLException e)
+		{
+			permits.release();
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * 已创建的连接数，包括借出的和空闲的
+	 */
+	public int getTotal()
+	{
+		return total.get();
+	}
+
+	/**
+	 * 空闲的连接数
+	 */
+	public int getIdle()
+	{
+		return idle.size();
+	}
+
+	/**
+	 * 关闭连接池和所有空闲的连接，借出的连接归还时关闭
+	 */
+	@Override
+	public synchronized void close()
+	{
+		closed = true;
+		if(evictor != null) evictor.shutdownNow();
+		PooledConnection pooled;
+		while((pooled = idle.pollFirst()) != null)
+			discard(pooled);
+	}
+
+	/**
+	 * 第一次使用时初始化，启动后台回收线程
+	 */
+	private synchronized Semaphore start() throws SQLException
+	{
+		if(closed) throw new SQLException("连接池已关闭");
+		if(permits != null) return permits;
+		permits = new Semaphore(maxSize, true);
+		evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "connection-pool-evictor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long interval = Math.max(1000, Math.min(maxIdleMillis / 2, 30000));
+		evictor.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					evict();
+				}
+				catch (Exception e)
+				{
+					log.error("回收空闲连接失败：", e);
+				}
+			}
+		}, 0, interval, TimeUnit.MILLISECONDS);
+		return permits;
+	}
+
+	/**
+	 * 关闭空闲太久的连接，连接数不足minSize时补足
+	 */
+	private void evict()
+	{
+		long deadline = System.currentTimeMillis() - maxIdleMillis;
+		PooledConnection pooled;
+		// 尾部是最久没用过的
+		while(total.get() > minSize && (pooled = idle.pollLast()) != null)
+		{
+			if(pooled.lastUsed > deadline)
+			{
+				offerIdle(pooled, false);
+				break;
+			}
+			discard(pooled);
+		}
+		int n;
+		while(!closed && (n = total.get()) < Math.min(minSize, maxSize))
+		{
+			if(!total.compareAndSet(n, n + 1)) continue; // 先占住名额，避免和借出时新建的连接加起来超过上限
+			try
+			{
+				offerIdle(create(), false);
+			}
+			catch (SQLException e)
+			{
+				log.error("创建数据库连接失败：", e);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * 创建连接，调用前需要已经在total里占住了名额
+	 */
+	private PooledConnection create() throws SQLException
+	{
+		log.debug("开始尝试连接数据库！");
+		try
+		{
+			Connection connection = DriverManager.getConnection(url, user, password);
+			log.debug("连接成功！");
+			return new PooledConnection(connection);
+		}
+		catch (SQLException e)
+		{
+			total.decrementAndGet();
+			throw e;
+		}
+	}
+
+	private boolean validate(PooledConnection pooled)
+	{
+		if(System.currentTimeMillis() - pooled.lastUsed < validationIdleMillis) return true;
+		try
+		{
+			return pooled.connection.isValid(validationTimeoutSeconds);
+		}
+		catch (SQLException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * 归还连接，恢复自动提交，出过错的或者连接池已关闭时直接关闭
+	 */
+	private void release(PooledConnection pooled)
+	{
+		boolean reusable = !closed;
+		try
+		{
+			if(reusable && !pooled.connection.getAutoCommit())
+			{
+				pooled.connection.rollback(); // 没有提交的事务不能带给下一个使用者
+				pooled.connection.setAutoCommit(true);
+			}
+		}
+		catch (SQLException e)
+		{
+			log.error("重置数据库连接失败：", e);
+			reusable = false;
+		}
+		if(reusable)
+		{
+			pooled.lastUsed = System.currentTimeMillis();
+			offerIdle(pooled, true);
+		}
+		else
+			discard(pooled);
+		permits.release();
+	}
+
+	/**
+	 * 放回空闲队列；close()可能已经清空过队列了，这时放进来的连接没人关闭，自己取出来关闭
+	 * @param first 放到头部（刚用过）还是尾部
+	 */
+	private void offerIdle(PooledConnection pooled, boolean first)
+	{
+		if(first)
+			idle.offerFirst(pooled);
+		else
+			idle.offerLast(pooled);
+		// close()先设置closed再清空队列，所以放入之后没看到closed的，一定会被close()清空
+		if(closed && idle.remove(pooled)) discard(pooled);
+	}
+
+	private void discard(PooledConnection pooled)
+	{
+		total.decrementAndGet();
+		pooled.closeStatements();
+		try
+		{
+			pooled.connection.close();
+		}
+		catch (SQLException e)
+		{
+			log.error("尝试关闭数据库连接时出错：", e);
+		}
+	}
+
+	/**
+	 * 从连接池借出的连接，带有PreparedStatement缓存，只能在一个线程里使用
+	 */
+	public class PooledConnection implements Closeable
+	{
+		private final Connection connection;
+		private final LinkedHashMap<String, PreparedStatement> statements;
+		private volatile long lastUsed = System.currentTimeMillis();
+		private boolean released = false;
+
+		private PooledConnection(Connection connection)
+		{
+			this.connection = connection;
+			// 按访问顺序排列，超出数量时关闭最久没用过的
+			this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true)
+			{
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest)
+				{
+					if(size() <= statementCacheSize) return false;
+					closeQuietly(eldest.getValue());
+					return true;
+				}
+			};
+		}
+
+		/**
+		 * 获取原始的连接，不要调用它的close()
+		 */
+		public Connection getConnection()
+		{
+			return connection;
+		}
+
+		/**
+		 * 获取预编译语句，同一条SQL会复用上次的并清空参数，调用者不要关闭它
+		 */
+		public PreparedStatement prepareStatement(String sql) throws SQLException
+		{
+			if(released) throw new SQLException("连接已归还");
+			PreparedStatement ps = statements.get(sql);
+			if(ps != null && !ps.isClosed())
+			{
+				ps.clearParameters();
+				return ps;
+			}
+			ps = connection.prepareStatement(sql);
+			if(statementCacheSize > 0) statements.put(sql, ps);
+			return ps;
+		}
+
+		/**
+		 * 语句是否由缓存管理，不是的话调用者需要自己关闭
+		 */
+		public boolean isCached(PreparedStatement ps)
+		{
+			return statements.containsValue(ps);
+		}
+
+		/**
+		 * 归还到连接池，可以重复调用
+		 */
+		@Override
+		public void close()
+		{
+			if(released) return;
+			released = true;
+			release(this);
+		}
+
+		private void closeStatements()
+		{
+			Iterator<PreparedStatement> iterator = statements.values().iterator();
+			while(iterator.hasNext())
+			{
+				closeQuietly(iterator.next());
+				iterator.remove();
+			}
+		}
+
+		private void closeQuietly(PreparedStatement ps)
+		{
+			try
+			{
+				ps.close();
+			}
+			catch (SQLException e)
+			{
+				log.error("关闭预编译语句失败：", e);
+			}
+		}
+	}
+}
@@ -11,6 +11,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -188,16 +190,91 @@ public class FileUtil
 	 */
 	public static String readFile(String filePath, String encoding)
 	{
-		log.debug("开始读取文件:{}", filePath);
+		BufferedReader br = openReader(filePath, encoding);
+		if(br == null) return null;
 		try
 		{
-			FileInputStream fis = new FileInputStream(filePath);
-			BufferedReader br = new BufferedReader(new InputStreamReader(fis, encoding));
 			String s = "";
-			StringBuffer sb = new StringBuffer();
+			StringBuilder sb = new StringBuilder();
 			while ((s = br.readLine()) != null)
-				sb.append(s+"\n");
-			br.close();
+				sb.append(s).append('\n');
+			return sb.toString();
+		}
+		catch (Exception e)
+		{
+			log.error("读取文件失败：", e);
+			return null;
+		}
+		finally
+		{
+			try
+			{
+				br.close();
+			}
+			catch (IOException e)
+			{
+				log.error("尝试关闭流时失败：", e);
+			}
+		}
+	}
+
+	/**
+	 * 打开一个读取文件内容的流，不会把整个文件读进内存，适合很大的文件，用完后需要调用者关闭
+	 * @param filePath
+	 * @param encoding
+	 * @return 打开失败时返回null
+	 */
+	public static BufferedReader openReader(String filePath, String encoding)
+	{
+		log.debug("开始读取文件:{}", filePath);
+		try
+		{
+			return new BufferedReader(new InputStreamReader(new FileInputStream(filePath), encoding));
+		}
+		catch (Exception e)
+		{
+			log.error("读取文件失败：", e);
+			return null;
+		}
+	}
+
+	/**
+	 * 用NIO打开文件，直接解码到调用者的char数组，比{@link #openReader(String, String)}少几层缓冲，用完后需要调用者关闭
+	 * @param filePath
+	 * @param encoding 文件编码，为null时根据文件内容自动探测是UTF-8、GBK还是带BOM的UTF-16
+	 * @return 打开失败时返回null
+	 */
+	public static NioFileReader openNioReader(String filePath, String encoding)
+	{
+		log.debug("开始读取文件:{}", filePath);
+		try
+		{
+			return new NioFileReader(filePath, encoding == null ? null : Charset.forName(encoding));
+		}
+		catch (Exception e)
+		{
+			log.error("读取文件失败：", e);
+			return null;
+		}
+	}
+
+	/**
+	 * 用NIO读取整个文件的内容，换行符保持原样
+	 * @param filePath
+	 * @param encoding 文件编码，为null时自动探测
+	 * @return 读取失败时返回null
+	 */
+	public static String readFileNio(String filePath, String encoding)
+	{
+		NioFileReader reader = openNioReader(filePath, encoding);
+		if(reader == null) return null;
+		try
+		{
+			StringBuilder sb = new StringBuilder((int)Math.min(reader.size(), Integer.MAX_VALUE - 8));
+			char[] buf = new char[8192];
+			int len = -1;
+			while ((len = reader.read(buf)) != -1)
+				sb.append(buf, 0, len);
 			return sb.toString();
 		}
 		catch (Exception e)
@@ -205,6 +282,59 @@ public class FileUtil
 			log.error("读取文件失败：", e);
 			return null;
 		}
+		finally
+		{
+			try
+			{
+				reader.close();
+			}
+			catch (IOException e)
+			{
+				log.error("尝试关闭流时失败：", e);
+			}
+		}
+	}
+
+	/**
+	 * 探测文件的编码
+	 * @param filePath
+	 * @return 探测失败时返回null
+	 */
+	public static Charset detectCharset(String filePath)
+	{
+		NioFileReader reader = openNioReader(filePath, null);
+		if(reader == null) return null;
+		try
+		{
+			return reader.getCharset();
+		}
+		finally
+		{
+			try
+			{
+				reader.close();
+			}
+			catch (IOException e)
+			{
+				log.error("尝试关闭流时失败：", e);
+			}
+		}
+	}
+
+	/**
+	 * 从流中最多读取maxChars个字符到buf中，直到读满或者读到流的末尾
+	 * @param reader
+	 * @param buf 存放读取结果，长度不能小于maxChars
+	 * @param maxChars 最多读取的字符数
+	 * @return 实际读取的字符数
+	 * @throws IOException
+	 */
+	public static int read(Reader reader, char[] buf, int maxChars) throws IOException
+	{
+		int count = 0, len = 0;
+		while (count < maxChars && (len = reader.read(buf, count, maxChars - count)) != -1)
+			count += len;
+		return count;
 	}
 
 	/**
@@ -293,7 +423,8 @@ public class FileUtil
 	}
 	
 	/**
-	 * 列出某个路径下的所有文件，包括子文件夹，如果本身就是文件，那么返回自身
+	 * 列出某个路径下的所有文件，包括子文件夹，如果本身就是文件，那么返回自身<br>
+	 * 文件很多时建议用{@link #traverseParallel(String, int, TraverseExecuter)}或者{@link FileWalker}边遍历边处理
 	 * @param filePath 需要遍历的文件路径
 	 * @param fileNameFilter 文件名过滤器
 	 * @return 文件集合
@@ -306,17 +437,7 @@ public class FileUtil
 			File root = new File(filePath);
 			if(!root.exists()) return files;
 			if(root.isFile()) files.add(root);
-			else
-			{
-				for(File file : root.listFiles(fileNameFilter))
-				{
-					if(file.isFile()) files.add(file);
-					else if(file.isDirectory())
-					{
-						files.addAll(listAllFiles(file.getAbsolutePath(), fileNameFilter));
-					}
-				}
-			}
+			else listAllFiles(root, fileNameFilter, files);
 		}
 		catch (Exception e)
 		{
@@ -325,6 +446,20 @@ public class FileUtil
 		return files;
 	}
 	
+	/**
+	 * 递归列出某个文件夹下的所有文件，直接添加到同一个集合里，避免每一层都复制一次
+	 */
+	private static void listAllFiles(File dir, FilenameFilter fileNameFilter, List<File> files)
+	{
+		File[] children = dir.listFiles(fileNameFilter);
+		if(children == null) return; // 没有权限等
+		for(File file : children)
+		{
+			if(file.isFile()) files.add(file);
+			else if(file.isDirectory()) listAllFiles(file, fileNameFilter, files);
+		}
+	}
+	
 	/**
 	 * 列出某个路径下的所有文件，包括子文件夹，如果本身就是文件，那么返回自身
 	 * @param filePath 需要遍历的文件路径
@@ -345,6 +480,18 @@ public class FileUtil
 		traverse(filePath, null, executer);
 	}
 	
+	/**
+	 * 多线程并行遍历某个文件夹执行一段操作，找到一个文件就执行一次，不需要等遍历完<br>
+	 * 需要包含/排除规则、最大深度等更多配置时直接使用{@link FileWalker}
+	 * @param filePath 文件夹路径
+	 * @param parallelism 遍历的线程数
+	 * @param executer 需要调用的方法，会被多个线程同时调用，必须是线程安全的
+	 */
+	public static void traverseParallel(String filePath, int parallelism, TraverseExecuter executer)
+	{
+		new FileWalker().setParallelism(parallelism).walk(filePath, executer);
+	}
+	
 	/**
 	 * 遍历某个路径，删除其中的空文件夹
 	 * @param filePath
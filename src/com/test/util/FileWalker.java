@@ -0,0 +1,256 @@
+package com.test.util;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.test.util.FileUtil.TraverseExecuter;
+
+/**
+ * 基于ForkJoinPool的并行目录遍历：每个目录是一个任务，子目录拆成子任务并行遍历，
+ * 找到一个文件就立即交给TraverseExecuter处理，不需要先把所有文件收集到一个大List里<br>
+ * 支持包含/排除的glob规则、最大深度，以及跟随符号链接时的死循环保护<br>
+ * 注意TraverseExecuter会被多个线程同时调用，必须是线程安全的；它抛出的RuntimeException会中止整个遍历<br>
+ * 无法读取的目录会被跳过并作为walk()的返回值，里面的文件没有遍历到不代表已经不存在了<br>
+ * 配置好之后可以重复使用，也可以同时遍历多个目录
+ * @author liuxianan
+ */
+public class FileWalker
+{
+	private static final Logger log = LoggerFactory.getLogger(FileWalker.class);
+
+	private final List<PathMatcher> includes = new ArrayList<PathMatcher>();
+	private final List<PathMatcher> excludes = new ArrayList<PathMatcher>();
+	private int maxDepth = Integer.MAX_VALUE;
+	private boolean followLinks = false;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * 添加包含规则，设置了包含规则后只处理匹配的文件，对文件夹无效
+	 * @param glob 如“*.txt”、“**&#47;doc/*.{md,txt}”，同时匹配文件名和相对于遍历根目录的路径
+	 */
+	public FileWalker include(String glob)
+	{
+		includes.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+		return this;
+	}
+
+	/**
+	 * 添加排除规则，匹配的文件不处理，匹配的文件夹整个跳过
+	 * @param glob 如“.svn”、“*.log”，同时匹配文件名和相对于遍历根目录的路径
+	 */
+	public FileWalker exclude(String glob)
+	{
+		excludes.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+		return this;
+	}
+
+	/**
+	 * 设置最大深度，0表示只处理根路径本身，1表示只处理根目录下的直接文件，默认不限制
+	 */
+	public FileWalker setMaxDepth(int maxDepth)
+	{
+		this.maxDepth = maxDepth;
+		return this;
+	}
+
+	/**
+	 * 设置是否跟随符号链接，默认不跟随；跟随时同一个目录只会遍历一次，不会陷入死循环
+	 */
+	public FileWalker setFollowLinks(boolean followLinks)
+	{
+		this.followLinks = followLinks;
+		return this;
+	}
+
+	/**
+	 * 设置遍历的线程数，默认和CPU核数一致
+	 */
+	public FileWalker setParallelism(int parallelism)
+	{
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * 遍历某个路径，会一直阻塞到遍历结束，如果本身就是文件，那么只处理自身
+	 * @param filePath 需要遍历的路径
+	 * @param executer 处理找到的文件，会被多个线程同时调用
+	 * @return 无法读取的路径，比如没有权限或者读取时出错的目录，它们下面的文件可能没有遍历到；全部成功时为空
+	 */
+	public List<String> walk(String filePath, TraverseExecuter executer)
+	{
+		Path root = Paths.get(filePath).toAbsolutePath();
+		LinkOption[] options = followLinks ? new LinkOption[0] : new LinkOption[]{LinkOption.NOFOLLOW_LINKS};
+		BasicFileAttributes attrs;
+		try
+		{
+			attrs = Files.readAttributes(root, BasicFileAttributes.class, options);
+		}
+		catch (IOException e)
+		{
+			log.error("路径不存在或无法读取：" + filePath);
+			List<String> failed = new ArrayList<String>();
+			failed.add(root.toString());
+			return failed;
+		}
+		if(attrs.isRegularFile())
+		{
+			if(maxDepth >= 0) executer.execute(root.toString(), root.getFileName().toString());
+			return new ArrayList<String>();
+		}
+		if(!attrs.isDirectory() || maxDepth < 1) return new ArrayList<String>();
+		Walk walk = new Walk(root, options, executer);
+		walk.visited(root, attrs);
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try
+		{
+			pool.invoke(walk.new DirTask(root, 0));
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+		return new ArrayList<String>(walk.failed);
+	}
+
+	/**
+	 * 一次遍历的状态
+	 */
+	private class Walk
+	{
+		private final Path root;
+		private final LinkOption[] options;
+		private final TraverseExecuter executer;
+		private final ConcurrentHashMap<Object, Boolean> visited = new ConcurrentHashMap<Object, Boolean>();
+		private final Queue<String> failed = new ConcurrentLinkedQueue<String>(); // 无法读取的路径
+
+		public Walk(Path root, LinkOption[] options, TraverseExecuter executer)
+		{
+			this.root = root;
+			this.options = options;
+			this.executer = executer;
+		}
+
+		/**
+		 * 记录已经遍历过的目录，只在跟随符号链接时需要
+		 * @return 是否是第一次遍历这个目录
+		 */
+		boolean visited(Path dir, BasicFileAttributes attrs)
+		{
+			if(!followLinks) return true;
+			Object key = attrs.fileKey(); // Windows下没有fileKey，改用真实路径
+			try
+			{
+				if(key == null) key = dir.toRealPath();
+			}
+			catch (IOException e)
+			{
+				return false;
+			}
+			return visited.putIfAbsent(key, Boolean.TRUE) == null;
+		}
+
+		boolean matches(List<PathMatcher> matchers, Path path)
+		{
+			Path relative = root.relativize(path);
+			Path name = path.getFileName();
+			for(PathMatcher matcher : matchers)
+			{
+				if(matcher.matches(relative) || matcher.matches(name)) return true;
+			}
+			return false;
+		}
+
+		/**
+		 * 遍历一个目录的任务
+		 */
+		class DirTask extends RecursiveAction
+		{
+			private static final long serialVersionUID = 1L;
+			private final Path dir;
+			private final int depth;
+
+			public DirTask(Path dir, int depth)
+			{
+				this.dir = dir;
+				this.depth = depth;
+			}
+
+			@Override
+			protected void compute()
+			{
+				List<DirTask> tasks = new ArrayList<DirTask>();
+				DirectoryStream<Path> stream = null;
+				try
+				{
+					stream = Files.newDirectoryStream(dir);
+					for(Path path : stream)
+					{
+						BasicFileAttributes attrs;
+						try
+						{
+							attrs = Files.readAttributes(path, BasicFileAttributes.class, options);
+						}
+						catch (IOException e)
+						{
+							failed.add(path.toString()); // 失效的符号链接等
+							continue;
+						}
+						if(!excludes.isEmpty() && matches(excludes, path)) continue;
+						if(attrs.isDirectory())
+						{
+							if(depth + 1 < maxDepth && visited(path, attrs)) tasks.add(new DirTask(path, depth + 1));
+						}
+						else if(attrs.isRegularFile())
+						{
+							if(includes.isEmpty() || matches(includes, path))
+								executer.execute(path.toString(), path.getFileName().toString());
+						}
+					}
+				}
+				catch (IOException e)
+				{
+					// 可能已经处理了一部分文件，但整个目录都算作没有遍历完
+					log.error("遍历文件夹失败：" + dir, e);
+					failed.add(dir.toString());
+				}
+				catch (DirectoryIteratorException e)
+				{
+					// 迭代时读取目录出错，IOException被包装成了非受检异常，不捕获的话会中止整个遍历
+					log.error("遍历文件夹失败：" + dir, e.getCause());
+					failed.add(dir.toString());
+				}
+				finally
+				{
+					try
+					{
+						if(stream != null) stream.close();
+					}
+					catch (IOException e)
+					{
+						log.error("尝试关闭流时失败：", e);
+					}
+				}
+				invokeAll(tasks);
+			}
+		}
+	}
+}
@@ -1,10 +1,15 @@
 package com.test.util;
 
+import java.math.BigDecimal;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
@@ -13,9 +18,14 @@ import javax.sql.DataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.test.util.ConnectionPool.PooledConnection;
+
 /**
  * 数据库操作辅助工具类
  * 功能：获取数据库连接对象，关闭连接，执行更新语句，执执查询语句
+ * 线程安全：连接、语句、结果集按线程保存，多个线程可以共用一个实例，每个线程用完后调用closeAll()归还自己的连接；
+ * 使用URL时连接来自内置的{@link ConnectionPool}（带预编译语句缓存），使用JNDI时来自容器的连接池，
+ * 整个实例不再使用时调用close()关闭自己创建的连接池
  * 对于Oracle11g，驱动的一般位置在：D:\Oracle\app\oracle\product\11.2.0\server\jdbc\lib\ojdbc6_g.jar
  * 如果使用连接池，需做如下配置：
  * 1、找到tomcat的context.xml文件，在<Context>下级加上：
@@ -35,19 +45,33 @@ import org.slf4j.LoggerFactory;
 public class JdbcUtil
 {
 	private static final Logger log = LoggerFactory.getLogger(JdbcUtil.class);//日志对象
-	private Connection con = null;//创建的连接对象
-	private PreparedStatement ps = null;//创建预编译语句对象
-	private ResultSet rs = null;//创建结果集对象
+	/** 非MySQL数据库流式查询时每次从数据库读取的行数 */
+	public static final int STREAM_FETCH_SIZE = 1000;
+	private ConnectionPool pool;//内置连接池，使用JNDI时为null
+	private boolean ownPool;//连接池是否是自己创建的
+	private DataSource dataSource;//JNDI的数据源
+	private final ThreadLocal<Session> sessions = new ThreadLocal<Session>();//每个线程各自的连接、语句和结果集
 	
 	/**
-	 * 无参的构造方法，使用默认配置的一些东西，默认情况下不使用连接池
+	 * 一个线程正在使用的连接、语句和结果集
+	 */
+	private static class Session
+	{
+		Connection con = null;//借出的连接对象
+		PooledConnection pooled = null;//来自内置连接池时不为null
+		PreparedStatement ps = null;//当前的预编译语句对象
+		ResultSet rs = null;//当前的结果集对象
+	}
+	
+	/**
+	 * 无参的构造方法，使用默认配置的一些东西，默认情况下不使用JNDI连接池
 	 */
 	public JdbcUtil()
 	{
 		String url="jdbc:mysql://172.16.4.253:3306/new-health-province?useUnicode=true&characterEncoding=utf-8";
 		String user="test";
 		String password="test";
-		getConnection("mysql", url, user, password);
+		createPool("mysql", url, user, password);
 	}
 	
 	/**
@@ -55,7 +79,7 @@ public class JdbcUtil
 	 */
 	public JdbcUtil(String jndi)
 	{
-		getConnection(jndi);
+		lookup(jndi);
 	}
 	
 	/**
@@ -66,7 +90,7 @@ public class JdbcUtil
 	 */
 	public JdbcUtil(String url,String user,String password)
 	{
-		getConnection("mysql", url, user, password);
+		createPool("mysql", url, user, password);
 	}
 	
 	/**
@@ -77,75 +101,191 @@ public class JdbcUtil
 	 */
 	public JdbcUtil(String database,String url,String user,String password)
 	{
-		getConnection(database, url, user, password);
+		createPool(database, url, user, password);
+	}
+	
+	/**
+	 * 使用外部的连接池，多个JdbcUtil可以共用一个，由外部负责关闭
+	 */
+	public JdbcUtil(ConnectionPool pool)
+	{
+		this.pool = pool;
 	}
 	
 	/**
-	 * 普通的获取数据库连接
+	 * 创建内置的连接池，连接在第一次使用时才创建
 	 * @param database 数据库种类，可以是mysql、orcal
 	 * @param url 数据库连接的URL
 	 * 		Oracle示例：jdbc:oracle:thin:@192.168.3.228:1521:XE，
 	 * 		MySQL示例：jdbc:mysql://172.16.4.253:3306/new-health-province?useUnicode=true&characterEncoding=utf-8
 	 * @param user 数据库连接的用户名
 	 * @param password 数据库连接的密码
-	 * @return 创建的连接对象
 	 */
-	private Connection getConnection(String database,String url,String user,String password)
+	private void createPool(String database,String url,String user,String password)
+	{
+		pool = new ConnectionPool(database, url, user, password);
+		ownPool = true;
+	}
+	
+	/**
+	 * 查找JNDI数据源
+	 * @param jndi 配置在tomcat的context.xml里面的东西
+	 */
+	private void lookup(String jndi)
 	{
 		try
 		{
-			String className = "";
-			if("mysql".equals(database))
-				className="com.mysql.jdbc.Driver";
-			else if("orcal".equals(database))
-				className="oracle.jdbc.driver.OracleDriver";
-			Class.forName(className);
-			log.debug("开始尝试连接数据库！");
-			con = DriverManager.getConnection(url, user, password);
-			log.debug("连接成功！");
+			Context context=new InitialContext();
+			dataSource=(DataSource)context.lookup("java:comp/env/"+jndi);
 		}
 		catch (Exception e)
 		{
-			log.error("连接数据库失败！", e);
+			log.error("查找数据源失败！", e);
 		}
-		return con;
 	}
 	
 	/**
-	 * 获取连接，使用数据库连接池
+	 * 获取连接，使用数据库连接池，之后都改用JNDI数据源，自己创建的连接池会被关闭
 	 * @param jndi 配置在tomcat的context.xml里面的东西
-	 * @return 创建的连接对象
+	 * @return 当前线程的连接对象
 	 */
 	public Connection getConnection(String jndi)
+	{
+		lookup(jndi);
+		if(pool != null)
+		{
+			closeAll(); // 当前线程借出的连接是连接池的，先归还
+			if(ownPool) pool.close();
+			pool = null;
+			ownPool = false;
+		}
+		return getConnection();
+	}
+	
+	/**
+	 * 获取当前线程的连接，没有时从连接池借一个，用完后调用closeAll()归还，不要直接关闭它
+	 * @return 连接对象，获取失败时为null
+	 */
+	public Connection getConnection()
 	{
 		try
+		{
+			return session().con;
+		}
+		catch (SQLException e)
+		{
+			log.error("连接数据库失败！", e);
+			return null;
+		}
+	}
+	
+	/**
+	 * 获取当前线程的会话，没有连接时借一个
+	 */
+	private Session session() throws SQLException
+	{
+		Session session = sessions.get();
+		if(session != null) return session;
+		session = new Session();
+		if(pool != null)
+		{
+			session.pooled = pool.acquire();
+			session.con = session.pooled.getConnection();
+		}
+		else if(dataSource != null)
 		{
 			log.debug("开始尝试连接数据库！");
-			Context context=new InitialContext();
-			DataSource dataSource=(DataSource)context.lookup("java:comp/env/"+jndi);
-			con=dataSource.getConnection();
+			session.con = dataSource.getConnection();
 			log.debug("连接成功！");
 		}
-		catch (Exception e)
+		else
+			throw new SQLException("没有可用的数据源");
+		sessions.set(session);
+		return session;
+	}
+	
+	/**
+	 * 预编译语句，会先关闭当前线程上一次的结果集和语句，内置连接池的语句会被缓存复用
+	 */
+	private PreparedStatement prepare(Session session, String sql, boolean stream) throws SQLException
+	{
+		closeStatement(session);
+		if(stream)
+			session.ps=session.con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		else if(session.pooled != null)
+			session.ps=session.pooled.prepareStatement(sql);
+		else
+			session.ps=session.con.prepareStatement(sql);
+		return session.ps;
+	}
+	
+	/**
+	 * 关闭结果集和语句，缓存的语句不关闭
+	 */
+	private void closeStatement(Session session)
+	{
+		try
 		{
-			log.error("连接数据库失败！", e);
+			if(session.rs!=null)
+				session.rs.close();
+			if(session.ps!=null && (session.pooled==null || !session.pooled.isCached(session.ps)))
+				session.ps.close();
 		}
-		return con;
+		catch (SQLException e)
+		{
+			log.error("尝试关闭语句时出错：", e);
+		}
+		session.rs=null;
+		session.ps=null;
+	}
+	
+	/**
+	 * 关闭当前线程上一次查询的结果集，但保留连接，用于同一个线程里连续执行多个查询
+	 */
+	public void closeQuery()
+	{
+		Session session = sessions.get();
+		if(session!=null)
+			closeStatement(session);
 	}
 	
 	/**
-	 * 关闭所有占有的资源
+	 * 关闭某个结果集，是当前线程最近一次查询的结果集时连同语句一起关闭
+	 */
+	void closeQuery(ResultSet rs)
+	{
+		Session session = sessions.get();
+		if(session!=null && session.rs==rs)
+		{
+			closeStatement(session);
+			return;
+		}
+		try
+		{
+			rs.close();
+		}
+		catch (SQLException e)
+		{
+			log.error("尝试关闭结果集时出错：", e);
+		}
+	}
+	
+	/**
+	 * 关闭当前线程占有的所有资源，连接归还给连接池
 	 */
 	public void closeAll()
 	{
+		Session session = sessions.get();
+		if(session==null)
+			return;
+		sessions.remove();
+		closeStatement(session);
 		try
 		{
-			if(rs!=null)
-				rs.close();
-			if(ps!=null)
-				ps.close();
-			if (con != null)
-				con.close();
+			if(session.pooled!=null)
+				session.pooled.close();
+			else if(session.con!=null)
+				session.con.close();
 			log.debug("数据库连接已关闭！");
 		}
 		catch (Exception e)
@@ -154,6 +294,16 @@ public class JdbcUtil
 		}
 	}
 	
+	/**
+	 * 关闭当前线程的资源和自己创建的连接池，使用JNDI或外部连接池时只关闭当前线程的资源
+	 */
+	public void close()
+	{
+		closeAll();
+		if(ownPool)
+			pool.close();
+	}
+	
 	/**
 	 * 执行数据库的更新操作，包括增、删、改，执行后需手动关闭数据库连接
 	 * @param sql 需要执行的预编译语句
@@ -166,7 +316,7 @@ public class JdbcUtil
 		int count = 0;//受影响的行数
 		try
 		{
-			ps=con.prepareStatement(sql);
+			PreparedStatement ps=prepare(session(), sql, false);
 			for(int i=0;i<params.length;i++)
 				ps.setString(i+1, params[i]);
 			count=ps.executeUpdate();
@@ -192,6 +342,127 @@ public class JdbcUtil
 		return count;
 	}
 	
+	/**
+	 * 批量执行更新操作，每batchSize行用addBatch/executeBatch一次发送，比逐行执行update少很多次网络往返<br>
+	 * 注意：MySQL需要在URL里加上rewriteBatchedStatements=true，驱动才会把一批insert合并成一条语句发送，否则仍然是逐条执行
+	 * @param sql 需要执行的预编译语句
+	 * @param rows 参数列表，每个数组是一行的参数，按Java类型绑定，见{@link #setParameter(PreparedStatement, int, Object)}
+	 * @param batchSize 每批的行数
+	 * @param commitEachBatch 为true时每批单独提交，出错时之前的批次已经生效；为false时所有行在一个事务里，出错时全部回滚
+	 * @return 每批受影响的行数，驱动没有返回具体行数时为Statement.SUCCESS_NO_INFO
+	 * @throws SQLException 执行出错，没有提交的部分已经回滚
+	 */
+	public int[] batchUpdate(String sql, List<Object[]> rows, int batchSize, boolean commitEachBatch) throws SQLException
+	{
+		if(batchSize < 1) throw new IllegalArgumentException("batchSize必须大于0：" + batchSize);
+		log.debug("批量执行SQL："+sql);
+		Session session = session();
+		Connection con = session.con;
+		boolean autoCommit = con.getAutoCommit();
+		int[] counts = new int[(rows.size() + batchSize - 1) / batchSize];
+		PreparedStatement ps = null;
+		try
+		{
+			con.setAutoCommit(false);
+			ps = prepare(session, sql, false);
+			int batch = 0;
+			for(int i=0;i<rows.size();i++)
+			{
+				Object[] params = rows.get(i);
+				for(int j=0;j<params.length;j++)
+					setParameter(ps, j+1, params[j]);
+				ps.addBatch();
+				if((i+1) % batchSize == 0 || i == rows.size()-1)
+				{
+					counts[batch++] = sum(ps.executeBatch());
+					if(commitEachBatch)
+						con.commit();
+				}
+			}
+			if(!commitEachBatch)
+				con.commit();
+			log.debug("批量执行完成，共{}行，{}批", rows.size(), counts.length);
+			return counts;
+		}
+		catch (SQLException e)
+		{
+			try
+			{
+				if(ps != null)
+					ps.clearBatch();//缓存的语句还会被复用，不能留着没执行的批次
+				con.rollback();
+			}
+			catch (SQLException e2)
+			{
+				log.error("回滚失败：", e2);
+			}
+			throw e;
+		}
+		finally
+		{
+			con.setAutoCommit(autoCommit);
+		}
+	}
+	
+	/**
+	 * 一批中每行受影响的行数求和，有任何一行没有返回具体行数时返回Statement.SUCCESS_NO_INFO
+	 */
+	private static int sum(int[] counts)
+	{
+		int total = 0;
+		for(int count : counts)
+		{
+			if(count == Statement.SUCCESS_NO_INFO)
+				return Statement.SUCCESS_NO_INFO;
+			total += count;
+		}
+		return total;
+	}
+	
+	/**
+	 * 按参数的Java类型绑定，不用都转成字符串再让数据库转换：
+	 * null、String、Integer、Long、Short、Byte、Double、Float、Boolean、BigDecimal、byte[]、
+	 * java.sql.Timestamp/Date/Time，java.util.Date按Timestamp处理，其它类型交给setObject
+	 * @param ps 预编译语句
+	 * @param index 参数的序号，从1开始
+	 * @param value 参数值
+	 */
+	public static void setParameter(PreparedStatement ps, int index, Object value) throws SQLException
+	{
+		if(value == null)
+			ps.setNull(index, Types.NULL);
+		else if(value instanceof String)
+			ps.setString(index, (String)value);
+		else if(value instanceof Integer)
+			ps.setInt(index, (Integer)value);
+		else if(value instanceof Long)
+			ps.setLong(index, (Long)value);
+		else if(value instanceof Short)
+			ps.setShort(index, (Short)value);
+		else if(value instanceof Byte)
+			ps.setByte(index, (Byte)value);
+		else if(value instanceof Double)
+			ps.setDouble(index, (Double)value);
+		else if(value instanceof Float)
+			ps.setFloat(index, (Float)value);
+		else if(value instanceof Boolean)
+			ps.setBoolean(index, (Boolean)value);
+		else if(value instanceof BigDecimal)
+			ps.setBigDecimal(index, (BigDecimal)value);
+		else if(value instanceof byte[])
+			ps.setBytes(index, (byte[])value);
+		else if(value instanceof Timestamp)
+			ps.setTimestamp(index, (Timestamp)value);
+		else if(value instanceof java.sql.Date)
+			ps.setDate(index, (java.sql.Date)value);
+		else if(value instanceof Time)
+			ps.setTime(index, (Time)value);
+		else if(value instanceof java.util.Date)
+			ps.setTimestamp(index, new Timestamp(((java.util.Date)value).getTime()));
+		else
+			ps.setObject(index, value);
+	}
+	
 	/**
 	 * 执行数据库的查询操作
 	 * @param sql 需要执行的预编译语句
@@ -203,22 +474,85 @@ public class JdbcUtil
 		log.debug("执行查询SQL："+sql);
 		try
 		{
-			ps=con.prepareStatement(sql);
-			for(int i=0;i<params.length;i++)
-				ps.setString(i+1, params[i]);
-			rs=ps.executeQuery();
+			//由于查询是返回结果集，在调用此方法的时候还要用ResultSet.Next()的方法，
+			//所以这里还不能关闭数据库连接
+			return execute(sql, false, params);
 		}
 		catch (SQLException e)
 		{
 			log.debug("执行query时出错：", e);
+			return null;
+		}
+	}
+	
+	/**
+	 * 执行流式查询，遍历结果集时才逐步从数据库读取，不会把所有行一次性读入内存，适合导出、建索引等数据量很大的场景<br>
+	 * MySQL驱动默认会把整个结果集缓存在内存里，这里用setFetchSize(Integer.MIN_VALUE)让它逐行读取；
+	 * 其它数据库每次读取STREAM_FETCH_SIZE行<br>
+	 * 注意：MySQL在结果集遍历完或者关闭之前，同一个连接不能执行其它语句；遍历太慢时可能超过服务端的net_write_timeout
+	 * @param sql 需要执行的预编译语句
+	 * @param params 预编译语句的参数列表
+	 * @return 返回查询的结果集，只能向前遍历
+	 */
+	public ResultSet queryStream(String sql,String... params)
+	{
+		log.debug("执行流式查询SQL："+sql);
+		try
+		{
+			return execute(sql, true, params);
 		}
-		//由于查询是返回结果集，在调用此方法的时候还要用ResultSet.Next()的方法，
-		//所以这里还不能关闭数据库连接
-		return rs;
+		catch (SQLException e)
+		{
+			log.debug("执行queryStream时出错：", e);
+			return null;
+		}
+	}
+	
+	/**
+	 * 执行查询，结果集保存在当前线程的会话里
+	 * @param stream 是否流式查询
+	 */
+	private ResultSet execute(String sql, boolean stream, String... params) throws SQLException
+	{
+		Session session=session();
+		PreparedStatement ps=prepare(session, sql, stream);
+		if(stream)
+		{
+			boolean mysql = "MySQL".equalsIgnoreCase(session.con.getMetaData().getDatabaseProductName());
+			ps.setFetchSize(mysql ? Integer.MIN_VALUE : STREAM_FETCH_SIZE);
+		}
+		for(int i=0;i<params.length;i++)
+			ps.setString(i+1, params[i]);
+		session.rs=ps.executeQuery();
+		return session.rs;
+	}
+	
+	/**
+	 * 执行查询，逐行转换成对象遍历，读完最后一行时自动关闭结果集，中途放弃时需调用close()
+	 * @param sql 需要执行的预编译语句
+	 * @param mapper 把一行转换成对象，列的序号只查找一次
+	 * @param params 预编译语句的参数列表
+	 * @throws SQLException 执行查询出错
+	 */
+	public <T> RowIterator<T> iterate(String sql, RowMapper<T> mapper, String... params) throws SQLException
+	{
+		log.debug("执行查询SQL："+sql);
+		return new RowIterator<T>(this, execute(sql, false, params), mapper, false);
+	}
+	
+	/**
+	 * 和{@link #iterate(String, RowMapper, String...)}一样，但使用流式查询（见{@link #queryStream(String, String...)}），适合很大的结果集
+	 */
+	public <T> RowIterator<T> iterateStream(String sql, RowMapper<T> mapper, String... params) throws SQLException
+	{
+		log.debug("执行流式查询SQL："+sql);
+		return new RowIterator<T>(this, execute(sql, true, params), mapper, true);
 	}
 	
 	/**
-	 * 执行数据库的查询操作，带分页
+	 * 执行数据库的查询操作，带分页<br>
+	 * 注意：limit offset分页时数据库需要先扫描并丢弃前面所有的行，越往后越慢，全表遍历的总代价是O(n²)，
+	 * 遍历大表时应该用主键分页（where id > 上一页最后的id order by id limit pageSize）或者{@link #queryStream(String, String...)}
 	 * @param sql 需要执行的预编译语句
 	 * @param params 预编译语句的参数列表
 	 * @return 返回查询的结果集，类型为ResultSet
@@ -298,6 +632,6 @@ public class JdbcUtil
 			System.out.println(rs.getDate("upload_date"));
 			System.out.println(rs.getString(1));//注意索引从1开始
 		}
-		jdbc.closeAll();
+		jdbc.close();
 	}
 }
@@ -0,0 +1,205 @@
+package com.test.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 基于NIO的文件读取：FileChannel直接读到池化的直接内存缓冲区，再用池化的CharsetDecoder直接解码到调用者的char数组里，
+ * 不经过FileInputStream、InputStreamReader、BufferedReader这几层的中间缓冲<br>
+ * 不指定编码时根据文件开头的内容自动探测（见{@link CharsetDetector}），有BOM时按BOM的编码解码并跳过BOM；
+ * 指定的编码和BOM不一致时以BOM为准，并记录警告<br>
+ * 没有用FileChannel.map，因为Windows下被映射的文件在GC之前无法删除和修改，会影响正在被监听索引的目录<br>
+ * 缓冲区和解码器按线程缓存，关闭时归还，所以一个实例只能在一个线程里使用
+ * @author liuxianan
+ */
+public class NioFileReader extends Reader
+{
+	private static final Logger log = LoggerFactory.getLogger(NioFileReader.class);
+
+	/** 每次从文件读取的字节数 */
+	public static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final ThreadLocal<ByteBuffer> bufferPool = new ThreadLocal<ByteBuffer>();
+	private static final ThreadLocal<Map<Charset, CharsetDecoder>> decoderPool = new ThreadLocal<Map<Charset, CharsetDecoder>>()
+	{
+		@Override
+		protected Map<Charset, CharsetDecoder> initialValue()
+		{
+			return new HashMap<Charset, CharsetDecoder>();
+		}
+	};
+
+	private final FileChannel channel;
+	private final Charset charset;
+	private ByteBuffer buffer; // 处于可读状态（flip之后）
+	private CharsetDecoder decoder;
+	private CharBuffer out; // 包装调用者char数组的CharBuffer，数组不变时重复使用
+	private char[] outArray;
+	private boolean endOfFile = false;
+	private boolean flushed = false;
+
+	/**
+	 * 打开文件，自动探测编码
+	 */
+	public NioFileReader(String filePath) throws IOException
+	{
+		this(filePath, null);
+	}
+
+	/**
+	 * 打开文件
+	 * @param filePath 文件路径
+	 * @param charset 文件编码，为null时自动探测
+	 */
+	public NioFileReader(String filePath, Charset charset) throws IOException
+	{
+		channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+		try
+		{
+			buffer = borrowBuffer();
+			fill();
+			int bom = CharsetDetector.bomLength(buffer);
+			if(bom > 0)
+			{
+				// BOM是文件自己写的，比调用者指定的编码可靠，按指定的编码解码只会得到乱码
+				Charset bomCharset = CharsetDetector.bomCharset(buffer);
+				if(charset != null && !matches(charset, bomCharset))
+					log.warn("文件开头的BOM是{}，和指定的编码{}不一致，按{}读取：{}", new Object[]{bomCharset, charset, bomCharset, filePath});
+				charset = bomCharset;
+				buffer.position(buffer.position() + bom);
+			}
+			else if(charset == null)
+				charset = CharsetDetector.detect(buffer, endOfFile);
+			this.charset = charset;
+			decoder = borrowDecoder(charset);
+		}
+		catch (IOException e)
+		{
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * 获取文件编码
+	 */
+	public Charset getCharset()
+	{
+		return charset;
+	}
+
+	/**
+	 * 文件大小，可用于预估字符数
+	 */
+	public long size() throws IOException
+	{
+		return channel.size();
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException
+	{
+		if(channel == null || decoder == null) throw new IOException("Stream closed");
+		if(len == 0) return 0;
+		if(cbuf != outArray)
+		{
+			out = CharBuffer.wrap(cbuf);
+			outArray = cbuf;
+		}
+		out.limit(off + len).position(off);
+		while(out.position() == off)
+		{
+			if(flushed) return -1;
+			CoderResult result = decoder.decode(buffer, out, endOfFile);
+			if(result.isError()) result.throwException(); // 解码器设置成了REPLACE，一般不会出现
+			if(result.isOverflow()) break;
+			// 解码器需要更多的输入
+			if(endOfFile)
+			{
+				if(decoder.flush(out).isOverflow()) break;
+				flushed = true;
+			}
+			else
+				fill();
+		}
+		int count = out.position() - off;
+		return count == 0 && flushed ? -1 : count;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if(buffer != null)
+		{
+			bufferPool.set(buffer);
+			buffer = null;
+		}
+		if(decoder != null)
+		{
+			decoderPool.get().put(charset, decoder);
+			decoder = null;
+		}
+		out = null;
+		outArray = null;
+		channel.close();
+	}
+
+	/**
+	 * 从文件读取下一段，保留上次没有解码完的字节
+	 */
+	private void fill() throws IOException
+	{
+		buffer.compact();
+		while(buffer.hasRemaining())
+		{
+			if(channel.read(buffer) < 0)
+			{
+				endOfFile = true;
+				break;
+			}
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * 指定的编码和BOM表示的是否一致，不区分字节序的UTF-16两种BOM都算
+	 */
+	private static boolean matches(Charset charset, Charset bomCharset)
+	{
+		if(charset.equals(bomCharset)) return true;
+		return "UTF-16".equals(charset.name()) && !CharsetDetector.UTF_8.equals(bomCharset);
+	}
+
+	private static ByteBuffer borrowBuffer()
+	{
+		ByteBuffer buffer = bufferPool.get();
+		if(buffer == null)
+			buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		else
+			bufferPool.remove(); // 同一线程同时打开多个文件时，后面的会新分配一个
+		buffer.clear().flip(); // 置为空的可读状态
+		return buffer;
+	}
+
+	private static CharsetDecoder borrowDecoder(Charset charset)
+	{
+		CharsetDecoder decoder = decoderPool.get().remove(charset);
+		if(decoder == null)
+			decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		return decoder.reset();
+	}
+}
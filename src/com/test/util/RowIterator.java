@@ -0,0 +1,149 @@
+package com.test.util;
+
+import java.io.Closeable;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 逐行遍历查询结果，每行用{@link RowMapper}转换成对象，读完最后一行或者出错时自动关闭结果集和语句，
+ * 中途不再需要时调用close()，流式查询会先取消查询，不用等剩下的行全部传输完<br>
+ * 可以用Iterator的方式遍历（出错时抛出IllegalStateException），也可以用nextRow()直接得到SQLException<br>
+ * 由{@link JdbcUtil#iterate(String, RowMapper, String...)}创建，只能在创建它的线程里使用，遍历期间这个线程不要执行其它查询
+ * @author liuxianan
+ */
+public class RowIterator<T> implements Iterator<T>, Closeable
+{
+	private static final Logger log = LoggerFactory.getLogger(RowIterator.class);
+
+	private final JdbcUtil jdbc;
+	private final ResultSet rs;
+	private final RowMapper<T> mapper;
+	private final boolean stream;
+	private T next; // hasNext()预读的一行
+	private boolean fetched = false;
+	private boolean exhausted = false;
+	private boolean closed = false;
+	private long rowCount = 0;
+
+	RowIterator(JdbcUtil jdbc, ResultSet rs, RowMapper<T> mapper, boolean stream) throws SQLException
+	{
+		this.jdbc = jdbc;
+		this.rs = rs;
+		this.mapper = mapper;
+		this.stream = stream;
+		try
+		{
+			mapper.init(rs);
+		}
+		catch (SQLException e)
+		{
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * 读取下一行
+	 * @return 转换后的对象，没有更多的行时返回null
+	 * @throws SQLException 读取出错，结果集已经关闭
+	 */
+	public T nextRow() throws SQLException
+	{
+		if(fetched)
+		{
+			fetched = false;
+			T row = next;
+			next = null;
+			return row;
+		}
+		if(closed) return null;
+		boolean success = false;
+		try
+		{
+			T row = null;
+			if(rs.next())
+			{
+				row = mapper.mapRow(rs);
+				rowCount++;
+			}
+			else
+				exhausted = true;
+			success = true;
+			return row;
+		}
+		finally
+		{
+			if(!success || exhausted) close();
+		}
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		if(fetched) return true;
+		try
+		{
+			next = nextRow();
+		}
+		catch (SQLException e)
+		{
+			throw new IllegalStateException("读取结果集失败", e);
+		}
+		fetched = next != null;
+		return fetched;
+	}
+
+	@Override
+	public T next()
+	{
+		if(!hasNext()) throw new NoSuchElementException();
+		fetched = false;
+		T row = next;
+		next = null;
+		return row;
+	}
+
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * 已经读取的行数
+	 */
+	public long getRowCount()
+	{
+		return rowCount;
+	}
+
+	/**
+	 * 关闭结果集和语句，可以重复调用
+	 */
+	@Override
+	public void close()
+	{
+		if(closed) return;
+		closed = true;
+		if(stream && !exhausted)
+		{
+			// MySQL关闭没读完的流式结果集时会把剩下的行全部读完，先取消查询
+			try
+			{
+				Statement statement = rs.getStatement();
+				if(statement != null) statement.cancel();
+			}
+			catch (SQLException e)
+			{
+				log.error("取消查询失败：", e);
+			}
+		}
+		jdbc.closeQuery(rs);
+	}
+}
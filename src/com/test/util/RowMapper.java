@@ -0,0 +1,23 @@
+package com.test.util;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 把结果集的一行转换成对象，配合{@link JdbcUtil#iterate(String, RowMapper, String...)}使用<br>
+ * 列名到序号的查找在init()里做一次，mapRow()里只按序号读取，避免每一行每一列都按名字查找
+ * @author liuxianan
+ */
+public interface RowMapper<T>
+{
+	/**
+	 * 执行查询后、读取第一行之前调用一次，一般在这里用rs.findColumn()把需要的列名转成序号
+	 */
+	public void init(ResultSet rs) throws SQLException;
+
+	/**
+	 * 把当前行转换成对象，不能返回null<br>
+	 * 可以每次都返回同一个对象（复用），这时调用者必须在读取下一行之前用完它
+	 */
+	public T mapRow(ResultSet rs) throws SQLException;
+}
@@ -0,0 +1,139 @@
+package com.test.index;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link IndexPipeline}的测试：正常处理完所有数据，以及一个工作线程出错时finish()能返回并抛出这个错误<br>
+ * 工程里没有JUnit，直接运行main，全部通过时输出OK，否则抛出AssertionError
+ * @author liuxianan
+ */
+public class IndexPipelineTest
+{
+	private static final int THREADS = 4;
+
+	public static void main(String[] args) throws Exception
+	{
+		testFinish();
+		testWorkerFailure();
+		System.out.println("OK");
+	}
+
+	/**
+	 * 所有数据都处理完，返回处理成功的数量
+	 */
+	private static void testFinish() throws Exception
+	{
+		final AtomicInteger processed = new AtomicInteger();
+		IndexPipeline<Integer> pipeline = new IndexPipeline<Integer>("test", THREADS, 2, new IndexPipeline.WorkerFactory<Integer>()
+		{
+			@Override
+			public IndexPipeline.Worker<Integer> newWorker()
+			{
+				return new IndexPipeline.Worker<Integer>()
+				{
+					@Override
+					public boolean process(Integer item)
+					{
+						processed.incrementAndGet();
+						return item % 2 == 0;
+					}
+				};
+			}
+		});
+		try
+		{
+			pipeline.start();
+			for(int i=0; i<100; i++)
+				pipeline.put(i);
+			check(pipeline.finish() == 50, "处理成功的数量应该是50");
+			check(processed.get() == 100, "应该处理了100条，实际" + processed.get());
+		}
+		finally
+		{
+			pipeline.close();
+		}
+	}
+
+	/**
+	 * 最后一个工作线程出错，其余的工作线程阻塞在队列上，finish()要能返回并抛出这个错误，而不是一直等待<br>
+	 * 出错的不能是第一个线程，否则finish()按顺序等待时第一个就拿到了错误，测不出其余线程没有退出
+	 */
+	private static void testWorkerFailure() throws Exception
+	{
+		final IOException failure = new IOException("最后一个工作线程出错");
+		final AtomicInteger workers = new AtomicInteger();
+		final IndexPipeline<Integer> pipeline = new IndexPipeline<Integer>("test", THREADS, 2, new IndexPipeline.WorkerFactory<Integer>()
+		{
+			@Override
+			public IndexPipeline.Worker<Integer> newWorker()
+			{
+				final boolean fail = workers.incrementAndGet() == THREADS;
+				return new IndexPipeline.Worker<Integer>()
+				{
+					@Override
+					public boolean process(Integer item) throws IOException
+					{
+						if(fail) throw failure;
+						return true;
+					}
+				};
+			}
+		});
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			pipeline.start();
+			// 和两个调用者一样：put()抛出CancellationException后调用finish()
+			Future<Long> result = executor.submit(new Callable<Long>()
+			{
+				@Override
+				public Long call() throws Exception
+				{
+					try
+					{
+						// 一直放入，直到出错的线程也取到数据
+						for(int i=0; ; i++)
+							pipeline.put(i);
+					}
+					catch (CancellationException e)
+					{
+						// 工作线程出错，错误在finish()时抛出
+					}
+					return pipeline.finish();
+				}
+			});
+			try
+			{
+				result.get(10, TimeUnit.SECONDS);
+				throw new AssertionError("finish()应该抛出工作线程的错误");
+			}
+			catch (TimeoutException e)
+			{
+				throw new AssertionError("一个工作线程出错后finish()没有返回");
+			}
+			catch (ExecutionException e)
+			{
+				check(e.getCause() == failure, "finish()抛出的应该是工作线程的错误，实际是" + e.getCause());
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+			pipeline.close();
+		}
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if(!condition) throw new AssertionError(message);
+	}
+}
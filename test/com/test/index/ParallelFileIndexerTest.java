@@ -0,0 +1,122 @@
+package com.test.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+
+/**
+ * {@link ParallelFileIndexer}的测试：某个文件在写索引时抛出工作线程处理不了的错误，
+ * 整个索引过程要中止，并且index()要抛出这个错误，而不是一直等待<br>
+ * 工程里没有JUnit，直接运行main，全部通过时输出OK，否则抛出AssertionError
+ * @author liuxianan
+ */
+public class ParallelFileIndexerTest
+{
+	private static final int FILES = 500;
+
+	public static void main(String[] args) throws Exception
+	{
+		File dir = Files.createTempDirectory("parallel-file-indexer").toFile();
+		try
+		{
+			for(int i=0; i<FILES; i++)
+			{
+				String content = i == FILES / 2 ? "boom" : "file " + i;
+				Files.write(new File(dir, i + ".txt").toPath(), content.getBytes(StandardCharsets.UTF_8));
+			}
+			testWorkerFailure(dir);
+		}
+		finally
+		{
+			for(File file : dir.listFiles())
+				file.delete();
+			dir.delete();
+		}
+		System.out.println("OK");
+	}
+
+	private static void testWorkerFailure(final File dir) throws Exception
+	{
+		RAMDirectory directory = new RAMDirectory();
+		final IndexWriter indexWriter = new IndexWriter(directory, new IndexWriterConfig(new FailingAnalyzer()));
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			Future<Long> result = executor.submit(new Callable<Long>()
+			{
+				@Override
+				public Long call() throws Exception
+				{
+					return new ParallelFileIndexer(indexWriter, 4, 2).index(dir.getAbsolutePath());
+				}
+			});
+			try
+			{
+				result.get(30, TimeUnit.SECONDS);
+				throw new AssertionError("index()应该抛出工作线程的错误");
+			}
+			catch (TimeoutException e)
+			{
+				throw new AssertionError("一个工作线程出错后index()没有返回");
+			}
+			catch (ExecutionException e)
+			{
+				check(e.getCause() instanceof IllegalStateException, "index()抛出的应该是分词时的错误，实际是" + e.getCause());
+			}
+			check(indexWriter.numDocs() < FILES - 1, "出错后应该中止，不应该索引完其余的文件：" + indexWriter.numDocs());
+		}
+		finally
+		{
+			executor.shutdownNow();
+			indexWriter.close();
+			directory.close();
+		}
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if(!condition) throw new AssertionError(message);
+	}
+
+	/**
+	 * 按空格分词，遇到“boom”时抛出IllegalStateException，IndexWriter不会因此出错，但工作线程处理不了
+	 */
+	private static class FailingAnalyzer extends Analyzer
+	{
+		@Override
+		protected TokenStreamComponents createComponents(String fieldName)
+		{
+			Tokenizer tokenizer = new WhitespaceTokenizer();
+			return new TokenStreamComponents(tokenizer, new TokenFilter(tokenizer)
+			{
+				private final CharTermAttribute term = addAttribute(CharTermAttribute.class);
+
+				@Override
+				public boolean incrementToken() throws IOException
+				{
+					if(!input.incrementToken()) return false;
+					if("boom".equals(term.toString())) throw new IllegalStateException("无法分词：boom");
+					return true;
+				}
+			});
+		}
+	}
+}